@@ -0,0 +1,31 @@
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the zk-discovery benchmarks, any JMH command line option applies.
+ * <p>
+ * Results are written as JSON to jmh-result.json unless given otherwise (-rf, -rff),
+ * so runs of different versions can be compared.
+ * <p>
+ * Example, the catalog reads only:
+ * java -jar zk-discovery-perf-jar-with-dependencies.jar DiscoveryBenchmark.catalog -rff 1.0.1.json
+ */
+public class Benchmarks {
+
+    private static final String DEFAULT_RESULT = "jmh-result.json";
+
+    public static void main(String... args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLine.getResult().orElse(DEFAULT_RESULT))
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,179 @@
+import load.Pollers;
+import load.Registrants;
+import load.ZkStats;
+import model.util.Env;
+import org.HdrHistogram.Histogram;
+import org.apache.curator.test.TestingCluster;
+import org.apache.curator.test.TestingServer;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.glassfish.grizzly.http.server.HttpServer;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of zk-srv-discovery on one box, with no external services:
+ * an in-process ZK server (or ensemble), the discovery service, simulated registrants
+ * joining and leaving, and concurrent HTTP pollers.
+ * <p>
+ * Every report_s seconds, and once for the whole run, it reports the poll throughput and
+ * latency percentiles, the registrations, the ZK sessions and the heap usage.
+ * <p>
+ * Edit environment variables:
+ * load_zk_servers     - ZK servers, more than 1 runs an ensemble (default 1)
+ * load_sessions       - ZK sessions of the registrants (default 100)
+ * load_registrants    - instances registered on start (default 5000)
+ * load_services       - service names of the instances (default 50)
+ * load_join_rate      - instances joining per second (default 50)
+ * load_leave_rate     - instances leaving per second (default 50)
+ * load_pollers        - concurrent HTTP pollers (default 50)
+ * load_poll_interval_ms - pause of every poller between requests (default 0)
+ * load_duration_s     - length of the run (default 60)
+ * load_report_s       - interval between reports (default 10)
+ * load_port           - port of the discovery service (default 8080)
+ */
+public class LoadTest {
+
+    private static final String PATH = "/zk-srv-discovery";
+
+    // Churn operations are submitted every tick.
+    private static final long TICK_MILLIS = 100;
+
+    public static void main(String... args) throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+
+        int zkServers = Env.getInt("load_zk_servers", 1);
+        int sessions = Env.getInt("load_sessions", 100);
+        int registrants = Env.getInt("load_registrants", 5000);
+        int services = Env.getInt("load_services", 50);
+        double joinRate = Env.getLong("load_join_rate", 50);
+        double leaveRate = Env.getLong("load_leave_rate", 50);
+        int pollers = Env.getInt("load_pollers", 50);
+        long pollInterval = Env.getLong("load_poll_interval_ms", 0);
+        long duration = Env.getLong("load_duration_s", 60);
+        long reportInterval = Math.max(1, Env.getLong("load_report_s", 10));
+        int port = Env.getInt("load_port", 8080);
+
+        Closeable zk;
+        String connectString;
+        if (zkServers > 1) {
+            TestingCluster cluster = new TestingCluster(zkServers);
+            cluster.start();
+            zk = cluster;
+            connectString = cluster.getConnectString();
+        } else {
+            TestingServer server = new TestingServer();
+            zk = server;
+            connectString = server.getConnectString();
+        }
+        System.out.println("ZK " + connectString);
+
+        HttpServer server = Starter.startServer(connectString, "http://127.0.0.1:" + port + "/v1/");
+
+        Registrants registry = new Registrants(connectString, PATH, sessions, services);
+        long start = System.nanoTime();
+        registry.registerAll(registrants);
+        System.out.printf("Registered %d instances on %d sessions in %d ms%n",
+                registry.size(), registry.getSessionCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        Pollers poll = new Pollers("http://127.0.0.1:" + port + "/v1/zk-srv-discovery/", services, pollInterval);
+        poll.start(pollers);
+
+        ExecutorService churn = Executors.newFixedThreadPool(8);
+        ScheduledExecutorService ticks = Executors.newSingleThreadScheduledExecutor();
+        ticks.scheduleAtFixedRate(new Churn(churn, registry, joinRate, leaveRate), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        System.out.println("time_s  req/s  errors  p50_ms  p99_ms  p999_ms  max_ms  instances  joined  left  reg_failed  zk_sessions  heap_mb");
+        Histogram total = null;
+        long runStart = System.nanoTime();
+        long lastReport = runStart;
+        long deadline = runStart + TimeUnit.SECONDS.toNanos(duration);
+        poll.intervalLatencies(); // Drops the latencies recorded before the run.
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportInterval), TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) + 1));
+
+            long now = System.nanoTime();
+            Histogram interval = poll.intervalLatencies();
+            if (total == null) {
+                total = interval.copy();
+            } else {
+                total.add(interval);
+            }
+            report(now - runStart, now - lastReport, interval, poll, registry, connectString);
+            lastReport = now;
+        }
+
+        ticks.shutdownNow();
+        churn.shutdownNow();
+        poll.stop();
+
+        System.out.println("Total:");
+        report(System.nanoTime() - runStart, System.nanoTime() - runStart, total, poll, registry, connectString);
+
+        registry.close();
+        server.shutdownNow();
+        zk.close();
+        System.exit(0);
+    }
+
+    private static void report(final long elapsedNanos,
+                               final long intervalNanos,
+                               final Histogram latencies,
+                               final Pollers poll,
+                               final Registrants registry,
+                               final String connectString) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.printf("%6d %6.0f %7d %7.2f %7.2f %8.2f %7.2f %10d %7d %5d %11d %12d %8d%n",
+                TimeUnit.NANOSECONDS.toSeconds(elapsedNanos),
+                latencies.getTotalCount() / (intervalNanos / 1e9),
+                poll.getErrors(),
+                latencies.getValueAtPercentile(50) / 1000.0,
+                latencies.getValueAtPercentile(99) / 1000.0,
+                latencies.getValueAtPercentile(99.9) / 1000.0,
+                latencies.getMaxValue() / 1000.0,
+                registry.size(),
+                registry.getJoined(),
+                registry.getLeft(),
+                registry.getFailed(),
+                ZkStats.aliveConnections(connectString),
+                heap.getUsed() >> 20);
+    }
+
+    /**
+     * Submits the joins and leaves due every tick, carrying the fractions over.
+     */
+    private static final class Churn implements Runnable {
+
+        private final ExecutorService executor;
+        private final Registrants registry;
+        private final double joinsPerTick;
+        private final double leavesPerTick;
+        private double joins;
+        private double leaves;
+
+        private Churn(final ExecutorService executor, final Registrants registry, final double joinRate, final double leaveRate) {
+            this.executor = executor;
+            this.registry = registry;
+            this.joinsPerTick = joinRate * TICK_MILLIS / 1000;
+            this.leavesPerTick = leaveRate * TICK_MILLIS / 1000;
+        }
+
+        @Override
+        public void run() {
+            joins += joinsPerTick;
+            leaves += leavesPerTick;
+            for (; joins >= 1; --joins) {
+                executor.execute(registry::join);
+            }
+            for (; leaves >= 1; --leaves) {
+                executor.execute(registry::leave);
+            }
+        }
+    }
+}
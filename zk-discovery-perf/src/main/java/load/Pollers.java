@@ -0,0 +1,110 @@
+package load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent HTTP pollers of zk-srv-discovery, each one a thread with a keep-alive connection
+ * asking in turn for all services and for a random service, as text and as JSON.
+ * <p>
+ * Latencies are recorded in microseconds.
+ */
+public class Pollers {
+
+    private static final long MAX_LATENCY_US = TimeUnit.MINUTES.toMicros(1);
+
+    private final String baseUrl;
+    private final int services;
+    private final long intervalMillis;
+    private final Recorder latencies = new Recorder(MAX_LATENCY_US, 3);
+    private final AtomicLong errors = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = true;
+
+    /**
+     * @param baseUrl        - e.g. http://127.0.0.1:8080/v1/zk-srv-discovery/
+     * @param intervalMillis - pause of every poller between requests, 0 for none.
+     */
+    public Pollers(final String baseUrl, final int services, final long intervalMillis) {
+        this.baseUrl = baseUrl;
+        this.services = Math.max(1, services);
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void start(final int count) {
+        for (int i = 0; i < count; ++i) {
+            Thread thread = new Thread(this::poll, "Poller-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * @return Latencies since last called.
+     */
+    public Histogram intervalLatencies() {
+        return latencies.getIntervalHistogram();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    private void poll() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] buffer = new byte[8192];
+        for (long n = 0; running; ++n) {
+            String path = n % 2 == 0 ? "getAll" : "Load" + random.nextInt(services);
+            boolean json = n % 4 >= 2;
+
+            long start = System.nanoTime();
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+                if (json) {
+                    connection.setRequestProperty("Accept", "application/json");
+                }
+                int status = connection.getResponseCode();
+                InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                if (in != null) {
+                    // Read to the end, so the connection is kept alive.
+                    while (in.read(buffer) != -1) {
+                        // Discarded.
+                    }
+                    in.close();
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    errors.incrementAndGet();
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+            latencies.recordValue(Math.min(MAX_LATENCY_US, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)));
+
+            if (intervalMillis > 0) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package load;
+
+import model.Registration;
+import model.RegistrationResult;
+import model.Registry;
+import model.RegistrySession;
+import model.util.InstancePayload;
+import org.apache.curator.utils.CloseableUtils;
+import org.apache.curator.x.discovery.ServiceInstance;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulated registrants: service instances spread over a number of ZK sessions and services,
+ * joining and leaving at random.
+ */
+public class Registrants implements Closeable {
+
+    private static final int PORT = 18000;
+
+    private final List<RegistrySession> sessions = new ArrayList<>();
+    private final int services;
+
+    // Guarded by this, removed at random.
+    private final List<Registration> live = new ArrayList<>();
+
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong left = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param sessionCount - ZK sessions the instances are spread over.
+     * @param services     - number of service names the instances are spread over.
+     */
+    public Registrants(final String zkAddress, final String path, final int sessionCount, final int services) {
+        this.services = Math.max(1, services);
+        for (int i = 0; i < Math.max(1, sessionCount); ++i) {
+            sessions.add(new RegistrySession(zkAddress, path).start());
+        }
+    }
+
+    /**
+     * Registers given number of instances, in batches per session.
+     */
+    public void registerAll(final int count) throws Exception {
+        for (int s = 0; s < sessions.size(); ++s) {
+            List<ServiceInstance<InstancePayload>> instances = new ArrayList<>();
+            for (int i = s; i < count; i += sessions.size()) {
+                instances.add(newInstance(i));
+            }
+            for (RegistrationResult result : sessions.get(s).registerAll(instances)) {
+                if (result.isSuccess()) {
+                    joined.incrementAndGet();
+                    add(result.getRegistration());
+                } else {
+                    failed.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a new instance on a random session.
+     */
+    public void join() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            RegistrySession session = sessions.get(random.nextInt(sessions.size()));
+            add(session.register(newInstance(random.nextInt(services))));
+            joined.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Unregisters a random instance, if any.
+     */
+    public void leave() {
+        Registration registration = removeRandom();
+        if (registration == null) {
+            return;
+        }
+        try {
+            registration.unregister();
+            left.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+        }
+    }
+
+    public synchronized int size() {
+        return live.size();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getJoined() {
+        return joined.get();
+    }
+
+    public long getLeft() {
+        return left.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Unregisters all instances and closes the sessions.
+     */
+    @Override
+    public void close() {
+        for (RegistrySession session : sessions) {
+            CloseableUtils.closeQuietly(session);
+        }
+    }
+
+    private synchronized void add(final Registration registration) {
+        live.add(registration);
+    }
+
+    private synchronized Registration removeRandom() {
+        if (live.isEmpty()) {
+            return null;
+        }
+        // Swap with the last one, O(1).
+        int index = ThreadLocalRandom.current().nextInt(live.size());
+        Registration last = live.remove(live.size() - 1);
+        return index == live.size() ? last : live.set(index, last);
+    }
+
+    private ServiceInstance<InstancePayload> newInstance(final int i) throws Exception {
+        return Registry.instance("Load" + (i % services), PORT + i % 1000, "1.0.0", "load");
+    }
+}
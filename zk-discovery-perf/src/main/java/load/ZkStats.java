@@ -0,0 +1,58 @@
+package load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads ZK server stats with the "mntr" four letter word.
+ */
+public final class ZkStats {
+
+    private static final int TIMEOUT_MILLIS = 2000;
+    private static final String ALIVE_CONNECTIONS = "zk_num_alive_connections";
+
+    private ZkStats() {
+    }
+
+    /**
+     * @return Client connections (sessions) open on all servers of given connect string, -1 if not available.
+     */
+    public static long aliveConnections(final String connectString) {
+        long total = 0;
+        for (String server : connectString.split(",")) {
+            long connections = stat(server.trim(), ALIVE_CONNECTIONS);
+            if (connections < 0) {
+                return -1;
+            }
+            total += connections;
+        }
+        return total;
+    }
+
+    private static long stat(final String server, final String name) {
+        int colon = server.lastIndexOf(':');
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1))), TIMEOUT_MILLIS);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            OutputStream out = socket.getOutputStream();
+            out.write("mntr".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] stat = line.split("\t");
+                if (stat.length == 2 && stat[0].equals(name)) {
+                    return Long.parseLong(stat[1].trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not available, e.g. four letter words disabled.
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,94 @@
+package model;
+
+import model.util.InstancePayload;
+import org.apache.curator.test.TestingServer;
+import org.apache.curator.x.discovery.ServiceInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registrations per second against an in-process ZK.
+ * <p>
+ * The instances registered in an iteration are unregistered after it, outside of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegistryBenchmark {
+
+    private static final int BATCH = 100;
+
+    private TestingServer zk;
+    private String zkAddress;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        zk = new TestingServer();
+        zkAddress = zk.getConnectString();
+        Registry.session(zkAddress);
+    }
+
+    @TearDown(Level.Iteration)
+    public void unregisterAll() {
+        for (Registration registration : Registry.session(zkAddress).getRegistrations()) {
+            registration.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Registry.unregister();
+        zk.close();
+    }
+
+    @Benchmark
+    public int register() {
+        return Registry.register(zkAddress, "Sync", 18000, "1.0.0", "");
+    }
+
+    @Benchmark
+    public Registration registerAsync() throws Exception {
+        return Registry.registerServiceAsync(zkAddress, "Async", 18000, "1.0.0", "").get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<RegistrationResult> registerAll(final Batch batch) throws Exception {
+        return Registry.registerAll(zkAddress, batch.instances);
+    }
+
+    /**
+     * New instances for every invocation of registerAll.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+
+        private List<ServiceInstance<InstancePayload>> instances;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws Exception {
+            instances = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; ++i) {
+                instances.add(Registry.instance("Batch", 19000 + i, "1.0.0", ""));
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package model.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of given number of instances, spread over SERVICES services,
+ * as the text table and as JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RenderBenchmark {
+
+    private static final String ZK = "localhost:2181";
+    private static final String VERSION = "zk-srv-discovery:bench";
+    private static final int SERVICES = 10;
+
+    @Param({"10", "100", "1000", "10000"})
+    private int instances;
+
+    private SortedMap<String, List<ServiceInstance>> services;
+    private List<ServiceInstance> service;
+    private ServiceInstance instance;
+
+    // Reused response buffer, as the container buffers the entity.
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+
+    @Setup
+    public void setUp() {
+        services = new TreeMap<>();
+        for (int i = 0; i < instances; ++i) {
+            String name = "Service" + (i % SERVICES);
+            services.computeIfAbsent(name, n -> new ArrayList<>()).add(new ServiceInstance(
+                    name,
+                    "bench-host-" + i + " 10.0." + (i / 256 % 256) + "." + (i % 256),
+                    18000 + i,
+                    "[1.0.0] [Instance " + i + "]",
+                    "18/10/2026 12:00:00",
+                    "2f0c5b1e-4c4b-4a6e-9d0f-" + String.format("%012d", i)));
+        }
+        service = services.get("Service0");
+        instance = service.get(0);
+    }
+
+    @Benchmark
+    public String tableRow() {
+        return instance.toTableRow();
+    }
+
+    @Benchmark
+    public String tableService() {
+        return TableRenderer.renderRows(service);
+    }
+
+    @Benchmark
+    public String tableAll() {
+        return TableRenderer.renderTable(ZK, VERSION, services.values());
+    }
+
+    @Benchmark
+    public int jsonService() throws IOException {
+        out.reset();
+        CatalogJsonWriter.writeInstances(out, service);
+        return out.size();
+    }
+
+    @Benchmark
+    public int jsonAll() throws IOException {
+        out.reset();
+        CatalogJsonWriter.writeServices(out, ZK, VERSION, services);
+        return out.size();
+    }
+
+    @Benchmark
+    public byte[] jsonEvent() throws IOException {
+        return CatalogJsonWriter.eventBytes("added", 1, instance);
+    }
+}
@@ -0,0 +1,132 @@
+package restful;
+
+import model.catalog.CatalogQuery;
+import model.catalog.FanOutFetcher;
+import model.catalog.FetchResult;
+import model.util.InstancePayload;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.curator.utils.CloseableUtils;
+import org.apache.curator.x.discovery.ServiceInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static model.Registry.instance;
+import static model.Registry.registerAll;
+import static model.Registry.unregister;
+
+/**
+ * Discovery reads against an in-process ZK holding given number of instances,
+ * spread over SERVICES services.
+ * <p>
+ * catalog* are the reads served from the watch-driven catalog,
+ * zk* are the cold reads (catalog not initialized yet) fanned out to ZK.
+ * Instances have one of VERSIONS versions, for selective indexed queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DiscoveryBenchmark {
+
+    private static final String PATH = "/zk-srv-discovery";
+    private static final int SERVICES = 10;
+    private static final String SERVICE_NAME = "Service0";
+    private static final int VERSIONS = 100;
+    private static final CatalogQuery SELECTIVE_QUERY = new CatalogQuery().namePrefix("Service").version("1.0.7");
+
+    @Param({"10", "100", "1000", "10000"})
+    private int instances;
+
+    private TestingServer zk;
+    private Discovery discovery;
+    private CuratorFramework client;
+    private FanOutFetcher fetcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        zk = new TestingServer();
+
+        List<ServiceInstance<InstancePayload>> registered = new ArrayList<>(instances);
+        for (int i = 0; i < instances; ++i) {
+            registered.add(instance("Service" + (i % SERVICES), 18000 + i, "1.0." + (i % VERSIONS), "Instance " + i));
+        }
+        registerAll(zk.getConnectString(), registered);
+
+        discovery = new Discovery(PATH, zk.getConnectString());
+        discovery.start();
+        awaitCatalog();
+
+        client = CuratorFrameworkFactory.newClient(zk.getConnectString(), new RetryOneTime(1000));
+        client.start();
+        client.blockUntilConnected();
+        fetcher = new FanOutFetcher(client, PATH, 64, 5000);
+    }
+
+    /**
+     * Waits for the catalog to hold all instances, so catalog reads do not fall back to ZK.
+     */
+    private void awaitCatalog() throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (System.currentTimeMillis() < deadline) {
+            FetchResult result = discovery.queryForInstances();
+            if (result.isCached() && result.getSnapshot().size() == instances) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new IllegalStateException("Catalog did not load " + instances + " instances");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        CloseableUtils.closeQuietly(client);
+        discovery.close();
+        unregister();
+        zk.close();
+    }
+
+    @Benchmark
+    public FetchResult catalogAll() throws Exception {
+        return discovery.queryForInstances();
+    }
+
+    @Benchmark
+    public FetchResult catalogService() throws Exception {
+        return discovery.queryForInstances(SERVICE_NAME);
+    }
+
+    @Benchmark
+    public List<model.util.ServiceInstance> catalogQuery() throws Exception {
+        return discovery.query(discovery.queryForInstances(), SELECTIVE_QUERY);
+    }
+
+    @Benchmark
+    public FetchResult zkAll() throws Exception {
+        return fetcher.fetchAll().get();
+    }
+
+    @Benchmark
+    public FetchResult zkService() throws Exception {
+        return fetcher.fetch(SERVICE_NAME).get();
+    }
+}
@@ -1,13 +1,29 @@
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import model.util.Env;
+import restful.CompressionFilter;
+import restful.Discovery;
+import restful.EventStream;
+import restful.MetricsResource;
+import restful.RequestMetricsFilter;
 import restful.Service;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.internal.inject.AbstractBinder;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.net.URI;
-import java.net.UnknownHostException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static model.Registry.register;
 
@@ -22,6 +38,7 @@ public class Starter implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(Starter.class);
 
     private static final String ResourcePackage = "control.rest";
+    private static final String PATH = "/zk-srv-discovery";
     private static final CountDownLatch latch = new CountDownLatch(1);
 
     private static final String zooKeeperAddress = System.getenv("zk_address");
@@ -30,28 +47,117 @@ public class Starter implements Runnable {
     private static final String version = "1.0.1";
     private static final String metaData = "";
 
-    private static void startServer() throws UnknownHostException {
+    private static void startServer() throws Exception {
 
         // Set service address from local-host
         InetAddress inetAddress = InetAddress.getLocalHost();
         String BASE_URI = "http://" + inetAddress.getHostAddress() + ":8080/v1/";
 
-        // Build resources for RESTful web service and start Http Server as REST.
-        final ResourceConfig rc = new ResourceConfig().registerClasses(Service.class);
-        GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc);
+        startServer(zooKeeperAddress, BASE_URI);
 
         register(zooKeeperAddress, serviceName, servicePort, version, metaData);
 
         logger.info("server started at " + BASE_URI + "application.wadl");
     }
 
+    /**
+     * Starts the RESTful discovery service of given ZK on given base URI,
+     * stopped by the shutdown hook.
+     */
+    static HttpServer startServer(final String zkAddress, final String baseUri) throws Exception {
+
+        // Everything recorded to the global registry is served on /metrics.
+        final PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(meterRegistry);
+
+        // One ZK session for the whole application, shared by all requests.
+        // Started once the server listens, connecting in the background (see /health).
+        final Discovery discovery = new Discovery(PATH, zkAddress);
+        final EventStream eventStream = new EventStream(discovery);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            eventStream.close();
+            discovery.close();
+        }, "Discovery Shutdown"));
+
+        // Build resources for RESTful web service and start Http Server as REST.
+        final ResourceConfig rc = new ResourceConfig()
+                .registerClasses(Service.class, MetricsResource.class, RequestMetricsFilter.class, CompressionFilter.class)
+                .register(SseFeature.class)
+                .register(new AbstractBinder() {
+                    @Override
+                    protected void configure() {
+                        bind(discovery).to(Discovery.class);
+                        bind(eventStream).to(EventStream.class);
+                        bind(meterRegistry).to(PrometheusMeterRegistry.class);
+                    }
+                });
+        final HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(baseUri), rc, false);
+        for (NetworkListener listener : server.getListeners()) {
+            configureWorkers(listener.getTransport());
+        }
+        server.start();
+        try {
+            discovery.start();
+        } catch (Exception e) {
+            server.shutdownNow();
+            throw e;
+        }
+        return server;
+    }
+
+    /**
+     * Sizes the threads serving requests from env variables:
+     * http_selectors (I/O threads, default by Grizzly),
+     * http_workers (threads running the resources, default by Grizzly),
+     * http_queue_limit (requests waiting for a worker, default unbounded),
+     * http_virtual_threads (true for a virtual thread per request, on JDKs supporting it).
+     * <p>
+     * Requests waiting for zk are suspended and do not hold a worker (see Service),
+     * so few workers are needed.
+     */
+    private static void configureWorkers(final TCPNIOTransport transport) {
+        int selectors = Env.getInt("http_selectors", 0);
+        if (selectors > 0) {
+            transport.setSelectorRunnersCount(selectors);
+        }
+
+        if (Boolean.parseBoolean(Env.get("http_virtual_threads", "false"))) {
+            ExecutorService executor = virtualThreadExecutor();
+            if (executor != null) {
+                transport.setWorkerThreadPool(executor);
+                logger.info("Serving requests on virtual threads");
+                return;
+            }
+            logger.warn("Virtual threads are not supported by this JVM, serving requests on a worker pool");
+        }
+
+        ThreadPoolConfig config = transport.getWorkerThreadPoolConfig();
+        int workers = Env.getInt("http_workers", 0);
+        if (workers > 0) {
+            config.setCorePoolSize(workers).setMaxPoolSize(workers);
+        }
+        config.setQueueLimit(Env.getInt("http_queue_limit", -1));
+        logger.info("Serving requests on " + config.getMaxPoolSize() + " workers");
+    }
+
+    /**
+     * @return Executor starting a virtual thread per task, null when not supported (before JDK 21).
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     public static void main(String... args) {
         logger.info("Running zk-srv-discovery:" + System.getenv("SRV_VERSION"));
 
         try {
             startServer();
             latch.await();
-        } catch (InterruptedException | UnknownHostException e) {
+        } catch (Exception e) {
             logger.error(e.getMessage(), e);
             e.printStackTrace();
         }
@@ -0,0 +1,181 @@
+package model;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import model.util.Liveness;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.curator.x.discovery.ServiceInstance;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Refreshes the liveness records (see Liveness) of the instances of a session registered in TTL mode.
+ * <p>
+ * Every ttl/3, give or take 25% so hosts don't beat in lockstep, all the records of the session
+ * are written with background multi() transactions of setData, RegistrySession.BATCH_SIZE at a time.
+ * All sessions share a single scheduler thread, which never waits for ZK.
+ */
+final class Heartbeat implements Closeable {
+
+    private static Logger logger = Logger.getLogger(Heartbeat.class);
+
+    // Batches of records refreshed, or failed (then created again next beat).
+    private static final Counter refreshed = Metrics.counter("registry.heartbeats", "result", "success");
+    private static final Counter refreshFailed = Metrics.counter("registry.heartbeats", "result", "failure");
+
+    private static final class Scheduler {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Registry Heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final CuratorFramework client;
+    private final String livenessPath;
+    private final long ttlMillis;
+    private final Supplier<Collection<Registration>> registrations;
+
+    // Records created on the current session, refreshed by setData. The others are created first.
+    private final Set<String> created = ConcurrentHashMap.newKeySet();
+
+    private volatile ScheduledFuture<?> next;
+    private volatile boolean closed;
+
+    Heartbeat(final CuratorFramework client,
+              final String basePath,
+              final long ttlMillis,
+              final Supplier<Collection<Registration>> registrations) {
+        this.client = client;
+        this.livenessPath = Liveness.path(basePath);
+        this.ttlMillis = ttlMillis;
+        this.registrations = registrations;
+    }
+
+    void start() {
+        next = Scheduler.INSTANCE.schedule(this::tick, delay(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Beats once now, out of schedule, for newly registered instances.
+     */
+    void beatSoon() {
+        Scheduler.INSTANCE.execute(this::beat);
+    }
+
+    /**
+     * Forgets the created records, after a session change they may be gone.
+     */
+    void reset() {
+        created.clear();
+    }
+
+    void remove(final ServiceInstance<?> instance) throws Exception {
+        String path = pathFor(instance);
+        created.remove(path);
+        client.delete().guaranteed().inBackground().forPath(path);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ScheduledFuture<?> scheduled = next;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    private void tick() {
+        try {
+            beat();
+        } finally {
+            if (!closed) {
+                next = Scheduler.INSTANCE.schedule(this::tick, delay(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void beat() {
+        if (closed || !client.getZookeeperClient().isConnected()) {
+            return;
+        }
+        byte[] data = Liveness.encode(System.currentTimeMillis(), ttlMillis);
+        List<CuratorOp> operations = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        try {
+            for (Registration registration : registrations.get()) {
+                String path = pathFor(registration.getInstance());
+                if (!created.contains(path)) {
+                    create(path, data);
+                    continue;
+                }
+                operations.add(client.transactionOp().setData().forPath(path, data));
+                paths.add(path);
+                if (operations.size() == RegistrySession.BATCH_SIZE) {
+                    refresh(operations, paths);
+                    operations = new ArrayList<>();
+                    paths = new ArrayList<>();
+                }
+            }
+            if (!operations.isEmpty()) {
+                refresh(operations, paths);
+            }
+        } catch (Exception e) {
+            logger.error("Heartbeat failed", e);
+        }
+    }
+
+    private void refresh(final List<CuratorOp> operations, final List<String> paths) throws Exception {
+        client.transaction().inBackground((c, event) -> {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                refreshed.increment();
+            } else {
+                refreshFailed.increment();
+                // A record is gone (session change, or removed), the whole batch is created again next beat.
+                created.removeAll(paths);
+            }
+        }).forOperations(operations);
+    }
+
+    private void create(final String path, final byte[] data) throws Exception {
+        client.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL).inBackground((c, event) -> {
+            KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+            if (code == KeeperException.Code.OK) {
+                created.add(path);
+            } else if (code == KeeperException.Code.NODEEXISTS) {
+                c.setData().inBackground((s, set) -> {
+                    if (set.getResultCode() == KeeperException.Code.OK.intValue()) {
+                        created.add(path);
+                    }
+                }).forPath(path, data);
+            } else {
+                logger.warn("Failed creating liveness record " + path + ": " + code);
+            }
+        }).forPath(path, data);
+    }
+
+    private long delay() {
+        long interval = ttlMillis / 3;
+        return (long) (interval * (0.75 + ThreadLocalRandom.current().nextDouble() * 0.5));
+    }
+
+    private String pathFor(final ServiceInstance<?> instance) {
+        return ZKPaths.makePath(livenessPath, instance.getName(), instance.getId());
+    }
+}
@@ -0,0 +1,30 @@
+package model;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Address of this host as registered, "hostName hostAddress".
+ * Resolved once per JVM, the lookup may block on DNS.
+ */
+final class LocalHost {
+
+    private static volatile String address;
+
+    private LocalHost() {
+    }
+
+    static String address() throws UnknownHostException {
+        String result = address;
+        if (result == null) {
+            InetAddress localHost = InetAddress.getLocalHost();
+            result = localHost.getHostName() + " " + localHost.getHostAddress();
+            address = result;
+        }
+        return result;
+    }
+
+    static boolean isResolved() {
+        return address != null;
+    }
+}
@@ -0,0 +1,45 @@
+package model;
+
+import model.util.InstancePayload;
+import org.apache.curator.x.discovery.ServiceInstance;
+
+import java.io.Closeable;
+
+/**
+ * Handle of a single registered service instance.
+ * Closing it unregisters the instance, the session stays open for the others.
+ */
+public class Registration implements Closeable {
+
+    private final RegistrySession session;
+    private final ServiceInstance<InstancePayload> instance;
+
+    Registration(final RegistrySession session, final ServiceInstance<InstancePayload> instance) {
+        this.session = session;
+        this.instance = instance;
+    }
+
+    public ServiceInstance<InstancePayload> getInstance() {
+        return instance;
+    }
+
+    public RegistrySession getSession() {
+        return session;
+    }
+
+    /**
+     * Unregisters this instance.
+     */
+    public void unregister() throws Exception {
+        session.unregister(this);
+    }
+
+    @Override
+    public void close() {
+        try {
+            unregister();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed unregistering " + instance.getId(), e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package model;
+
+import model.util.InstancePayload;
+import org.apache.curator.x.discovery.ServiceInstance;
+
+/**
+ * Outcome of registering one instance out of a batch.
+ */
+public class RegistrationResult {
+
+    private final ServiceInstance<InstancePayload> instance;
+    private final Registration registration;
+    private final Exception error;
+
+    RegistrationResult(final ServiceInstance<InstancePayload> instance, final Registration registration, final Exception error) {
+        this.instance = instance;
+        this.registration = registration;
+        this.error = error;
+    }
+
+    public ServiceInstance<InstancePayload> getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return Handle of the registered instance, null on failure.
+     */
+    public Registration getRegistration() {
+        return registration;
+    }
+
+    /**
+     * @return Why the instance was not registered, null on success.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -1,16 +1,17 @@
 package model;
 
-import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.retry.ExponentialBackoffRetry;
+import model.util.InstancePayload;
 import org.apache.curator.utils.CloseableUtils;
-import org.apache.curator.x.discovery.ServiceDiscovery;
-import org.apache.curator.x.discovery.ServiceDiscoveryBuilder;
 import org.apache.curator.x.discovery.ServiceInstance;
 import org.apache.curator.x.discovery.UriSpec;
 import org.apache.log4j.Logger;
 
-import java.net.InetAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class Registry {
 
@@ -18,14 +19,14 @@ public class Registry {
     private static final int SUCCESS = 0;
     private static final int FAIL = 1;
 
-    private static CuratorFramework client;
-    private static ServiceDiscovery<Object> serviceDiscovery;
+    // One ZK session per connect string, shared by all instances registered from this JVM.
+    private static final ConcurrentMap<String, RegistrySession> sessions = new ConcurrentHashMap<>();
     private static Logger logger = Logger.getLogger(Registry.class);
 
 
     /**
      * Registers a service to ZK.
-     * Registers a service per Thread.
+     * All services registered to the same ZK share a single session.
      * <p>
      * Example:
      * register("localhost:3181", "Worker_1", 18005, "V1", "Mock server 1");
@@ -37,33 +38,8 @@ public class Registry {
                                final int servicePort,
                                final String version,
                                final String metaData) {
-
-        //Connecting to ZooKeeper as client.
-        client = CuratorFrameworkFactory.newClient(zkAddress,
-                new ExponentialBackoffRetry(1000, 3));
-        client.start();
-
-        //Creates Service Instance according to params.
         try {
-            ServiceInstance<Object> serviceInstance = ServiceInstance.builder()
-                    .name(serviceName)
-                    .address(InetAddress.getLocalHost().getHostName() + " " + InetAddress.getLocalHost().getHostAddress())
-                    .port(servicePort)
-                    .payload("[" + version + "]" + " " + "[" + metaData + "]")
-                    .uriSpec(new UriSpec("{scheme}://{address}:{servicePort}"))
-                    .build();
-
-            serviceDiscovery = ServiceDiscoveryBuilder.builder(Object.class)
-                    .basePath(PATH)
-                    .client(client)
-                    .thisInstance(serviceInstance)
-                    .build();
-
-            //Connects to ZooKeeper as Service Instance.
-            serviceDiscovery.start();
-
-            logger.info("Client:Connected, ServiceDiscovery: Connected");
-
+            registerService(zkAddress, serviceName, servicePort, version, metaData);
         } catch (Exception e) {
             logger.error("Failed connecting to ZooKeeper", e);
             return FAIL;
@@ -71,8 +47,115 @@ public class Registry {
         return SUCCESS;
     }
 
+    /**
+     * Registers a service to ZK.
+     * <p>
+     * Example:
+     * Registration worker = registerService("localhost:3181", "Worker_1", 18005, "V1", "Mock server 1");
+     * ...
+     * worker.close();
+     *
+     * @return Handle for unregistering this service alone.
+     */
+    public static Registration registerService(final String zkAddress,
+                                               final String serviceName,
+                                               final int servicePort,
+                                               final String version,
+                                               final String metaData) throws Exception {
+        return session(zkAddress).register(instance(serviceName, servicePort, version, metaData));
+    }
+
+    /**
+     * Registers a service to ZK without blocking the calling thread.
+     * <p>
+     * Example:
+     * registerServiceAsync("localhost:3181", "Worker_1", 18005, "V1", "Mock server 1")
+     *         .thenAccept(worker -> logger.info("Registered " + worker.getInstance().getId()));
+     *
+     * @return Handle for unregistering this service alone, once registered.
+     */
+    public static CompletableFuture<Registration> registerServiceAsync(final String zkAddress,
+                                                                       final String serviceName,
+                                                                       final int servicePort,
+                                                                       final String version,
+                                                                       final String metaData) {
+        RegistrySession session = session(zkAddress);
+        if (LocalHost.isResolved()) {
+            try {
+                return session.registerAsync(instance(serviceName, servicePort, version, metaData));
+            } catch (Exception e) {
+                CompletableFuture<Registration> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+
+        // First registration of this JVM, resolve the local host off the calling thread.
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return instance(serviceName, servicePort, version, metaData);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }).thenCompose(session::registerAsync);
+    }
+
+    /**
+     * Registers many services to ZK in a few multi() transactions.
+     * <p>
+     * Example:
+     * registerAll("localhost:3181", Arrays.asList(
+     *         instance("Worker_1", 18005, "V1", "Mock server 1"),
+     *         instance("Worker_2", 18006, "V1", "Mock server 2")));
+     *
+     * @return Result per service, in the given order.
+     */
+    public static List<RegistrationResult> registerAll(final String zkAddress,
+                                                       final Collection<ServiceInstance<InstancePayload>> instances) throws Exception {
+        return session(zkAddress).registerAll(instances);
+    }
+
+    /**
+     * Creates a Service Instance of this host according to params.
+     */
+    public static ServiceInstance<InstancePayload> instance(final String serviceName,
+                                                            final int servicePort,
+                                                            final String version,
+                                                            final String metaData) throws Exception {
+        return instance(serviceName, servicePort, new InstancePayload(version, metaData));
+    }
+
+    /**
+     * Creates a Service Instance of this host with a payload holding metadata.
+     * <p>
+     * Example:
+     * instance("Worker_1", 18005, new InstancePayload("V1", "Mock server 1", Collections.singletonMap("zone", "a")));
+     */
+    public static ServiceInstance<InstancePayload> instance(final String serviceName,
+                                                            final int servicePort,
+                                                            final InstancePayload payload) throws Exception {
+        return ServiceInstance.<InstancePayload>builder()
+                .name(serviceName)
+                .address(LocalHost.address())
+                .port(servicePort)
+                .payload(payload)
+                .uriSpec(new UriSpec("{scheme}://{address}:{servicePort}"))
+                .build();
+    }
+
+    /**
+     * @return The shared session of this ZK, started on first use.
+     */
+    public static RegistrySession session(final String zkAddress) {
+        return sessions.computeIfAbsent(zkAddress, address -> new RegistrySession(address, PATH).start());
+    }
+
+    /**
+     * Unregisters all services and closes all sessions.
+     */
     public static void unregister() {
-        CloseableUtils.closeQuietly(serviceDiscovery);
-        CloseableUtils.closeQuietly(client);
+        for (String zkAddress : sessions.keySet()) {
+            CloseableUtils.closeQuietly(sessions.remove(zkAddress));
+        }
     }
-}
\ No newline at end of file
+}
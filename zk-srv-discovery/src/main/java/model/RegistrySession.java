@@ -0,0 +1,353 @@
+package model;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import model.util.Env;
+import model.util.InstancePayload;
+import model.util.InstancePayloadSerializer;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.utils.CloseableUtils;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.curator.x.discovery.ServiceInstance;
+import org.apache.curator.x.discovery.details.InstanceSerializer;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * One ZK session, shared by any number of registered service instances.
+ * <p>
+ * Every instance is an ephemeral znode under path/{ServiceName}/{id}.
+ * When the connection is re-established the instances whose znode is gone, or owned by
+ * another (expired) session, are registered again. The others are left untouched.
+ * <p>
+ * In TTL mode (registration_ttl_ms env variable, or ttlMillis) the instances also keep
+ * a liveness record fresh (see Heartbeat), so an instance whose process hangs while its
+ * session lives on is seen as stale by the discovery service.
+ */
+public class RegistrySession implements Closeable {
+
+    private static Logger logger = Logger.getLogger(RegistrySession.class);
+
+    // Instances per multi() transaction, keeps the request well below jute.maxbuffer.
+    static final int BATCH_SIZE = 100;
+
+    private static final Counter registered = registrations("sync", "success");
+    private static final Counter registerFailed = registrations("sync", "failure");
+    private static final Counter registeredAsync = registrations("async", "success");
+    private static final Counter registerAsyncFailed = registrations("async", "failure");
+    private static final Counter registeredBatch = registrations("batch", "success");
+    private static final Counter unregistered = Metrics.counter("registry.unregistrations");
+    private static final Counter reRegistrationsKept = Metrics.counter("registry.reregistrations", "result", "kept");
+    private static final Counter reRegistrationsCreated = Metrics.counter("registry.reregistrations", "result", "created");
+
+    private final String zkAddress;
+    private final String path;
+    private final CuratorFramework client;
+    private final InstanceSerializer<InstancePayload> serializer;
+    private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final Heartbeat heartbeat;
+
+    private final ConnectionStateListener reconnectListener = (c, newState) -> {
+        Metrics.counter("zk.connection.state", "client", "registry", "state", newState.name()).increment();
+        if (newState == ConnectionState.RECONNECTED) {
+            reRegisterAll();
+        }
+    };
+
+    public RegistrySession(final String zkAddress, final String path) {
+        this(zkAddress, path, InstancePayloadSerializer.fromEnv(), Env.getLong("registration_ttl_ms", 0));
+    }
+
+    /**
+     * @param ttlMillis - TTL of the liveness records, 0 to rely on the ZK session only.
+     */
+    public RegistrySession(final String zkAddress,
+                           final String path,
+                           final InstanceSerializer<InstancePayload> serializer,
+                           final long ttlMillis) {
+        this.zkAddress = zkAddress;
+        this.path = path;
+        this.serializer = serializer;
+
+        //Connecting to ZooKeeper as client.
+        this.client = CuratorFrameworkFactory.newClient(zkAddress, new ExponentialBackoffRetry(1000, 3));
+        this.heartbeat = ttlMillis > 0 ? new Heartbeat(client, path, ttlMillis, this::getRegistrations) : null;
+
+        Gauge.builder("registry.instances", registrations, Map::size).tag("zk", zkAddress).register(Metrics.globalRegistry);
+    }
+
+    public RegistrySession start() {
+        client.getConnectionStateListenable().addListener(reconnectListener);
+        client.start();
+        if (heartbeat != null) {
+            heartbeat.start();
+        }
+        return this;
+    }
+
+    public String getZkAddress() {
+        return zkAddress;
+    }
+
+    /**
+     * Registers a service instance on this session.
+     *
+     * @return Handle for unregistering this instance alone.
+     */
+    public Registration register(final ServiceInstance<InstancePayload> instance) throws Exception {
+        Registration registration = new Registration(this, instance);
+        try {
+            create(instance);
+        } catch (Exception e) {
+            registerFailed.increment();
+            throw e;
+        }
+        registered.increment();
+        registrations.put(instance.getId(), registration);
+        logger.info("Registered " + instance.getName() + " " + instance.getId());
+        beatSoon();
+        return registration;
+    }
+
+    /**
+     * Registers a service instance without blocking, on Curator background operations.
+     * <p>
+     * The future completes on the Curator event thread, dependent stages must not block.
+     *
+     * @return Handle for unregistering this instance alone, once registered.
+     */
+    public CompletableFuture<Registration> registerAsync(final ServiceInstance<InstancePayload> instance) {
+        CompletableFuture<Registration> future = new CompletableFuture<>();
+        future.whenComplete((registration, e) -> (e == null ? registeredAsync : registerAsyncFailed).increment());
+        try {
+            createAsync(instance, serializer.serialize(instance), true, future);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void createAsync(final ServiceInstance<InstancePayload> instance,
+                             final byte[] bytes,
+                             final boolean takeOver,
+                             final CompletableFuture<Registration> future) throws Exception {
+        String instancePath = pathFor(instance);
+        client.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL).inBackground((c, created) -> {
+            KeeperException.Code code = KeeperException.Code.get(created.getResultCode());
+            try {
+                if (code == KeeperException.Code.OK) {
+                    Registration registration = new Registration(this, instance);
+                    registrations.put(instance.getId(), registration);
+                    logger.info("Registered " + instance.getName() + " " + instance.getId());
+                    beatSoon();
+                    future.complete(registration);
+                } else if (code == KeeperException.Code.NODEEXISTS && takeOver) {
+                    // Left by a previous session, take it over.
+                    c.delete().inBackground((d, deleted) -> {
+                        KeeperException.Code deleteCode = KeeperException.Code.get(deleted.getResultCode());
+                        if (deleteCode == KeeperException.Code.OK || deleteCode == KeeperException.Code.NONODE) {
+                            createAsync(instance, bytes, false, future);
+                        } else {
+                            future.completeExceptionally(KeeperException.create(deleteCode, instancePath));
+                        }
+                    }).forPath(instancePath);
+                } else {
+                    future.completeExceptionally(KeeperException.create(code, instancePath));
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }).forPath(instancePath, bytes);
+    }
+
+    /**
+     * Registers many service instances in a few round trips.
+     * <p>
+     * The existing service nodes are read once, then the instances and their missing parents
+     * are created BATCH_SIZE at a time, each batch in a single multi() transaction.
+     * A failed batch is retried one instance at a time, so one bad instance fails alone.
+     *
+     * @return Result per instance, in the given order.
+     */
+    public List<RegistrationResult> registerAll(final Collection<ServiceInstance<InstancePayload>> instances) throws Exception {
+        Set<String> parents = existingParents();
+        List<ServiceInstance<InstancePayload>> all = new ArrayList<>(instances);
+        List<RegistrationResult> results = new ArrayList<>(all.size());
+
+        for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+            List<ServiceInstance<InstancePayload>> batch = all.subList(from, Math.min(all.size(), from + BATCH_SIZE));
+            List<CuratorOp> operations = new ArrayList<>();
+
+            for (ServiceInstance<InstancePayload> instance : batch) {
+                String parent = ZKPaths.makePath(path, instance.getName());
+                if (parents.isEmpty()) {
+                    operations.add(client.transactionOp().create().withMode(CreateMode.PERSISTENT).forPath(path));
+                    parents.add(path);
+                }
+                if (parents.add(parent)) {
+                    operations.add(client.transactionOp().create().withMode(CreateMode.PERSISTENT).forPath(parent));
+                }
+                operations.add(client.transactionOp().create().withMode(CreateMode.EPHEMERAL)
+                        .forPath(pathFor(instance), serializer.serialize(instance)));
+            }
+
+            try {
+                client.transaction().forOperations(operations);
+                registeredBatch.increment(batch.size());
+                for (ServiceInstance<InstancePayload> instance : batch) {
+                    Registration registration = new Registration(this, instance);
+                    registrations.put(instance.getId(), registration);
+                    results.add(new RegistrationResult(instance, registration, null));
+                }
+            } catch (KeeperException e) {
+                logger.warn("Batch registration failed (" + e.code() + "), registering one by one");
+                for (ServiceInstance<InstancePayload> instance : batch) {
+                    try {
+                        results.add(new RegistrationResult(instance, register(instance), null));
+                    } catch (Exception instanceError) {
+                        results.add(new RegistrationResult(instance, null, instanceError));
+                    }
+                }
+            }
+        }
+        beatSoon();
+        logger.info("Registered " + results.stream().filter(RegistrationResult::isSuccess).count() + "/" + all.size() + " instances");
+        return results;
+    }
+
+    /**
+     * @return The base path and the service nodes under it, empty if the base path is missing.
+     */
+    private Set<String> existingParents() throws Exception {
+        Set<String> parents = new HashSet<>();
+        try {
+            for (String name : client.getChildren().forPath(path)) {
+                parents.add(ZKPaths.makePath(path, name));
+            }
+            parents.add(path);
+        } catch (KeeperException.NoNodeException e) {
+            // Created by the first batch.
+        }
+        return parents;
+    }
+
+    /**
+     * @return Instances currently registered on this session.
+     */
+    public Collection<Registration> getRegistrations() {
+        return new ArrayList<>(registrations.values());
+    }
+
+    void unregister(final Registration registration) throws Exception {
+        ServiceInstance<InstancePayload> instance = registration.getInstance();
+        if (registrations.remove(instance.getId(), registration)) {
+            unregistered.increment();
+            try {
+                client.delete().guaranteed().forPath(pathFor(instance));
+            } catch (KeeperException.NoNodeException e) {
+                // Already gone.
+            }
+            if (heartbeat != null) {
+                heartbeat.remove(instance);
+            }
+        }
+    }
+
+    /**
+     * Unregisters all instances and closes the session.
+     */
+    @Override
+    public void close() {
+        for (Registration registration : getRegistrations()) {
+            CloseableUtils.closeQuietly(registration);
+        }
+        CloseableUtils.closeQuietly(heartbeat);
+        client.getConnectionStateListenable().removeListener(reconnectListener);
+        CloseableUtils.closeQuietly(client);
+    }
+
+    private void create(final ServiceInstance<InstancePayload> instance) throws Exception {
+        byte[] bytes = serializer.serialize(instance);
+        String instancePath = pathFor(instance);
+        try {
+            client.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(instancePath, bytes);
+        } catch (KeeperException.NodeExistsException e) {
+            // Left by a previous session, take it over.
+            client.delete().forPath(instancePath);
+            client.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(instancePath, bytes);
+        }
+    }
+
+    /**
+     * Creates again the instances lost with the previous session. Nodes still owned by the current
+     * session (connection lost, session kept) are only checked, not written.
+     */
+    private void reRegisterAll() {
+        long sessionId = sessionId();
+        boolean sessionChanged = false;
+        for (Registration registration : getRegistrations()) {
+            ServiceInstance<InstancePayload> instance = registration.getInstance();
+            try {
+                Stat stat = client.checkExists().forPath(pathFor(instance));
+                if (stat != null && stat.getEphemeralOwner() == sessionId) {
+                    reRegistrationsKept.increment();
+                    continue;
+                }
+                sessionChanged = true;
+                create(instance);
+                reRegistrationsCreated.increment();
+            } catch (Exception e) {
+                logger.error("Failed registering again " + instance.getId(), e);
+            }
+        }
+        if (heartbeat != null && (sessionChanged || registrations.isEmpty())) {
+            heartbeat.reset();
+        }
+        beatSoon();
+    }
+
+    /**
+     * @return Id of the current ZK session, 0 if unknown (then every instance is created again).
+     */
+    private long sessionId() {
+        try {
+            return client.getZookeeperClient().getZooKeeper().getSessionId();
+        } catch (Exception e) {
+            logger.warn("Session id unknown, registering all instances again", e);
+            return 0;
+        }
+    }
+
+    private static Counter registrations(final String mode, final String result) {
+        return Metrics.counter("registry.registrations", "mode", mode, "result", result);
+    }
+
+    private void beatSoon() {
+        if (heartbeat != null) {
+            heartbeat.beatSoon();
+        }
+    }
+
+    String pathFor(final ServiceInstance<?> instance) {
+        return ZKPaths.makePath(path, instance.getName(), instance.getId());
+    }
+}
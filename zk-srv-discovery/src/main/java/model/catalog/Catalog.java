@@ -0,0 +1,457 @@
+package model.catalog;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import model.util.Env;
+import model.util.Liveness;
+import model.util.ServiceInstance;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch-driven in-memory catalog of all services registered under a base path.
+ * <p>
+ * Subscribes once to the base path tree (base/{ServiceName}/{id}) with a TreeCache,
+ * so ZK is only read when something changes. Every change is applied to a private
+ * working copy and published as a new immutable CatalogSnapshot, readers never touch ZK.
+ * <p>
+ * Once initialized, every instance change is also passed to the CatalogListeners,
+ * and wakes up the readers waiting for a change of that service (awaitChange).
+ * <p>
+ * When given a liveness path, instances registered in TTL mode are hidden while their
+ * liveness record was not written for longer than its TTL: they are published as REMOVED when they go stale,
+ * and as ADDED when their heartbeat is back. Instances without a record are always live.
+ * TTLs run on the local monotonic clock from when the record is seen, never on the registrant's clock.
+ * <p>
+ * The visible instances are also kept in secondary indexes (see CatalogIndex), updated with
+ * every change, for filtering by name prefix, version, metadata, host and registration time (query).
+ */
+public class Catalog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Catalog.class);
+
+    // base/{ServiceName}/{id}
+    private static final int SERVICE_DEPTH = 1;
+    private static final int INSTANCE_DEPTH = 2;
+
+    private final String basePath;
+    private final TreeCache cache;
+    private final InstanceConverter converter;
+    private final TreeCache livenessCache;
+    private final ScheduledExecutorService sweeper;
+    private final long sweepMillis = Env.getLong("liveness_sweep_ms", 1000);
+
+    // Working copy, accessed only while holding the catalog lock.
+    private final SortedMap<String, SortedMap<String, ServiceInstance>> services = new TreeMap<>();
+    private final Map<String, Long> indexes = new HashMap<>();
+    private long version;
+    // Liveness, by relative path service/id.
+    private final Map<String, Long> expiries = new HashMap<>();
+    private final Set<String> stale = new HashSet<>();
+    // Visible instances, readable without the catalog lock.
+    private final CatalogIndex index = new CatalogIndex();
+
+    // Watch events received, by tree and type.
+    private final Map<TreeCacheEvent.Type, Counter> watchEvents = watchCounters("catalog");
+    private final Map<TreeCacheEvent.Type, Counter> livenessEvents = watchCounters("liveness");
+
+    private final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, Queue<CompletableFuture<CatalogSnapshot>>> waiters = new ConcurrentHashMap<>();
+
+    private volatile CatalogSnapshot snapshot = CatalogSnapshot.EMPTY;
+    private volatile boolean initialized;
+    private final CountDownLatch initializedLatch = new CountDownLatch(1);
+
+    public Catalog(final CuratorFramework client, final String basePath) {
+        this(client, basePath, new InstanceConverter());
+    }
+
+    public Catalog(final CuratorFramework client, final String basePath, final InstanceConverter converter) {
+        this(client, basePath, null, converter);
+    }
+
+    /**
+     * @param livenessPath - root of the liveness tree (see Liveness), null to ignore TTLs.
+     */
+    public Catalog(final CuratorFramework client,
+                   final String basePath,
+                   final String livenessPath,
+                   final InstanceConverter converter) {
+        this.basePath = basePath;
+        this.converter = converter;
+        this.cache = TreeCache.newBuilder(client, basePath)
+                .setMaxDepth(INSTANCE_DEPTH)
+                .setCacheData(false)
+                .build();
+        this.cache.getListenable().addListener((c, event) -> onEvent(event));
+
+        if (livenessPath == null) {
+            this.livenessCache = null;
+            this.sweeper = null;
+        } else {
+            this.livenessCache = TreeCache.newBuilder(client, livenessPath)
+                    .setMaxDepth(INSTANCE_DEPTH)
+                    .setCacheData(false)
+                    .build();
+            this.livenessCache.getListenable().addListener((c, event) -> onLivenessEvent(livenessPath, event));
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Catalog Liveness Sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void start() throws Exception {
+        cache.start();
+        if (livenessCache != null) {
+            livenessCache.start();
+            sweeper.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+        if (livenessCache != null) {
+            sweeper.shutdownNow();
+            livenessCache.close();
+        }
+    }
+
+    /**
+     * @return true once the initial tree has been loaded.
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Waits for the initial tree to be loaded.
+     *
+     * @return true if initialized, false if the timeout elapsed first.
+     */
+    public boolean awaitInitialized(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return initializedLatch.await(timeout, unit);
+    }
+
+    /**
+     * @return Latest published snapshot.
+     */
+    public CatalogSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void addListener(final CatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final CatalogListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return Visible instances matching given query, sorted by service name and id.
+     */
+    public List<ServiceInstance> query(final CatalogQuery query) {
+        return index.query(query);
+    }
+
+    /**
+     * Waits for the index of given service to move past given index.
+     * Completes on the catalog event thread, callers should continue asynchronously.
+     * Cancelling the returned future stops waiting.
+     *
+     * @return Future of the first snapshot where the service index is greater than index.
+     */
+    public CompletableFuture<CatalogSnapshot> awaitChange(final String serviceName, final long index) {
+        CompletableFuture<CatalogSnapshot> future = new CompletableFuture<>();
+        Queue<CompletableFuture<CatalogSnapshot>> queue =
+                waiters.computeIfAbsent(serviceName, name -> new ConcurrentLinkedQueue<>());
+        queue.add(future);
+        future.whenComplete((s, e) -> queue.remove(future));
+
+        // Snapshot is published before waiters are released, so a change racing with us is seen here.
+        CatalogSnapshot current = snapshot;
+        if (initialized && current.getIndex(serviceName) > index) {
+            future.complete(current);
+        }
+        return future;
+    }
+
+    private synchronized void onEvent(final TreeCacheEvent event) {
+        watchEvents.get(event.getType()).increment();
+        switch (event.getType()) {
+            case NODE_ADDED:
+            case NODE_UPDATED:
+                apply(event.getData(), false);
+                break;
+            case NODE_REMOVED:
+                apply(event.getData(), true);
+                break;
+            case INITIALIZED:
+                initialized = true;
+                publishAll();
+                logger.info("Catalog initialized with " + snapshot.size() + " instances");
+                initializedLatch.countDown();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void apply(final ChildData data, final boolean removed) {
+        List<String> parts = relativePath(data.getPath());
+        if (parts.isEmpty() || parts.size() > INSTANCE_DEPTH) {
+            return;
+        }
+
+        String serviceName = parts.get(0);
+        CatalogEvent.Type type = null;
+        ServiceInstance instance = null;
+        if (parts.size() == SERVICE_DEPTH) {
+            if (removed) {
+                SortedMap<String, ServiceInstance> instances = services.remove(serviceName);
+                if (instances != null) {
+                    instances.forEach((id, gone) -> {
+                        converter.evict(ZKPaths.makePath(data.getPath(), id));
+                        stale.remove(key(serviceName, id));
+                        index.remove(gone);
+                    });
+                }
+            } else {
+                services.computeIfAbsent(serviceName, name -> new TreeMap<>());
+            }
+        } else {
+            String id = parts.get(1);
+            String key = key(serviceName, id);
+            boolean wasVisible = !stale.contains(key);
+            if (removed) {
+                SortedMap<String, ServiceInstance> instances = services.get(serviceName);
+                converter.evict(data.getPath());
+                instance = instances == null ? null : instances.remove(id);
+                if (instance == null) {
+                    return;
+                }
+                stale.remove(key);
+                type = wasVisible ? CatalogEvent.Type.REMOVED : null;
+            } else {
+                instance = convert(data);
+                if (instance == null) {
+                    return;
+                }
+                ServiceInstance previous = services.computeIfAbsent(serviceName, name -> new TreeMap<>())
+                        .put(id, instance);
+                if (previous == instance) {
+                    // Same data as before (memoized conversion), nothing changed.
+                    return;
+                }
+                wasVisible &= previous != null;
+                boolean visible = !updateStale(key, now());
+                type = visibilityChange(wasVisible, visible);
+            }
+        }
+
+        changed(serviceName, type, instance);
+    }
+
+    private void changed(final String serviceName, final CatalogEvent.Type type, final ServiceInstance instance) {
+        if (type == CatalogEvent.Type.REMOVED) {
+            index.remove(instance);
+        } else if (type != null) {
+            index.put(instance);
+        }
+        indexes.put(serviceName, ++version);
+        if (initialized) {
+            publish(serviceName);
+            if (type != null) {
+                notifyListeners(new CatalogEvent(type, instance, version));
+            }
+            releaseWaiters(serviceName);
+        }
+    }
+
+    private static CatalogEvent.Type visibilityChange(final boolean wasVisible, final boolean visible) {
+        if (visible) {
+            return wasVisible ? CatalogEvent.Type.UPDATED : CatalogEvent.Type.ADDED;
+        }
+        return wasVisible ? CatalogEvent.Type.REMOVED : null;
+    }
+
+    /**
+     * @return true if the instance is stale at given time.
+     */
+    private boolean updateStale(final String key, final long now) {
+        Long expiresAt = expiries.get(key);
+        if (expiresAt != null && expiresAt < now) {
+            stale.add(key);
+            return true;
+        }
+        stale.remove(key);
+        return false;
+    }
+
+    private synchronized void onLivenessEvent(final String livenessPath, final TreeCacheEvent event) {
+        livenessEvents.get(event.getType()).increment();
+        if (event.getType() != TreeCacheEvent.Type.NODE_ADDED
+                && event.getType() != TreeCacheEvent.Type.NODE_UPDATED
+                && event.getType() != TreeCacheEvent.Type.NODE_REMOVED) {
+            return;
+        }
+        String path = event.getData().getPath();
+        if (!path.startsWith(livenessPath + ZKPaths.PATH_SEPARATOR)) {
+            return;
+        }
+        List<String> parts = ZKPaths.split(path.substring(livenessPath.length()));
+        if (parts.size() != INSTANCE_DEPTH) {
+            return;
+        }
+
+        String key = key(parts.get(0), parts.get(1));
+        long now = now();
+        if (event.getType() == TreeCacheEvent.Type.NODE_REMOVED) {
+            expiries.remove(key);
+        } else {
+            expiries.put(key, Liveness.expiresAt(event.getData().getData(), now));
+        }
+        refresh(parts.get(0), parts.get(1), now);
+    }
+
+    /**
+     * Hides the instances whose heartbeat is older than their TTL, shows them again when it's back.
+     */
+    private synchronized void sweep() {
+        long now = now();
+        for (String key : new ArrayList<>(expiries.keySet())) {
+            int separator = key.indexOf(ZKPaths.PATH_SEPARATOR);
+            refresh(key.substring(0, separator), key.substring(separator + 1), now);
+        }
+    }
+
+    private void refresh(final String serviceName, final String id, final long now) {
+        SortedMap<String, ServiceInstance> instances = services.get(serviceName);
+        ServiceInstance instance = instances == null ? null : instances.get(id);
+        String key = key(serviceName, id);
+        if (instance == null) {
+            stale.remove(key);
+            return;
+        }
+
+        boolean wasVisible = !stale.contains(key);
+        boolean visible = !updateStale(key, now);
+        if (wasVisible != visible) {
+            logger.info("Instance " + key + (visible ? " is live again" : " is stale"));
+            changed(serviceName, visibilityChange(wasVisible, visible), instance);
+        }
+    }
+
+    /**
+     * @return Monotonic millis, the clock of liveness expiries.
+     */
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static Map<TreeCacheEvent.Type, Counter> watchCounters(final String tree) {
+        Map<TreeCacheEvent.Type, Counter> counters = new EnumMap<>(TreeCacheEvent.Type.class);
+        for (TreeCacheEvent.Type type : TreeCacheEvent.Type.values()) {
+            counters.put(type, Metrics.counter("catalog.watch.events", "tree", tree, "type", type.name()));
+        }
+        return counters;
+    }
+
+    private static String key(final String serviceName, final String id) {
+        return serviceName + ZKPaths.PATH_SEPARATOR + id;
+    }
+
+    private void notifyListeners(final CatalogEvent event) {
+        for (CatalogListener listener : listeners) {
+            try {
+                listener.catalogChanged(event);
+            } catch (RuntimeException e) {
+                logger.error("Catalog listener failed", e);
+            }
+        }
+    }
+
+    private void releaseWaiters(final String serviceName) {
+        Queue<CompletableFuture<CatalogSnapshot>> queue = waiters.remove(serviceName);
+        if (queue != null) {
+            CatalogSnapshot current = snapshot;
+            queue.forEach(future -> future.complete(current));
+        }
+    }
+
+    private ServiceInstance convert(final ChildData data) {
+        if (data.getData() == null) {
+            return null;
+        }
+        try {
+            return converter.convert(data.getPath(), data.getStat(), data.getData());
+        } catch (Exception e) {
+            logger.error("Failed reading instance " + data.getPath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Publishes a snapshot where only given service is rebuilt, the others are shared with the previous one.
+     */
+    private void publish(final String serviceName) {
+        SortedMap<String, ServiceInstance> instances = services.get(serviceName);
+        snapshot = snapshot.with(version, serviceName, instances == null ? null : toList(serviceName, instances));
+    }
+
+    private void publishAll() {
+        SortedMap<String, List<ServiceInstance>> next = new TreeMap<>();
+        services.forEach((name, instances) -> next.put(name, toList(name, instances)));
+        snapshot = new CatalogSnapshot(version, next, indexes);
+    }
+
+    private List<ServiceInstance> toList(final String serviceName, final SortedMap<String, ServiceInstance> instances) {
+        if (stale.isEmpty()) {
+            return Collections.unmodifiableList(new ArrayList<>(instances.values()));
+        }
+        List<ServiceInstance> visible = new ArrayList<>(instances.size());
+        instances.forEach((id, instance) -> {
+            if (!stale.contains(key(serviceName, id))) {
+                visible.add(instance);
+            }
+        });
+        return Collections.unmodifiableList(visible);
+    }
+
+    private List<String> relativePath(final String path) {
+        if (!path.startsWith(basePath + ZKPaths.PATH_SEPARATOR)) {
+            return Collections.emptyList();
+        }
+        return ZKPaths.split(path.substring(basePath.length()));
+    }
+}
@@ -0,0 +1,43 @@
+package model.catalog;
+
+import model.util.ServiceInstance;
+
+/**
+ * A change of a single service instance, as applied to the catalog.
+ */
+public final class CatalogEvent {
+
+    public enum Type {
+        ADDED,
+        UPDATED,
+        REMOVED
+    }
+
+    private final Type type;
+    private final ServiceInstance instance;
+    private final long index;
+
+    CatalogEvent(final Type type, final ServiceInstance instance, final long index) {
+        this.type = type;
+        this.instance = instance;
+        this.index = index;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The instance after the change, or the last known instance when removed.
+     */
+    public ServiceInstance getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return Catalog version right after this change, unique and increasing per event.
+     */
+    public long getIndex() {
+        return index;
+    }
+}
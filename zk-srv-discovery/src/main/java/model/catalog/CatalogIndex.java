@@ -0,0 +1,169 @@
+package model.catalog;
+
+import model.util.ServiceInstance;
+import org.apache.curator.utils.ZKPaths;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Secondary indexes of the visible catalog instances, updated on every instance change:
+ * service names sorted (prefix queries), inverted indexes of versions, metadata pairs and hosts,
+ * and registration times sorted (range queries).
+ * <p>
+ * A query starts from the smallest matching index entry and checks the other criteria
+ * on those instances only, so a selective query does not scan the catalog.
+ */
+final class CatalogIndex {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // All by key service/id, guarded by lock.
+    private final Map<String, ServiceInstance> instances = new HashMap<>();
+    private final NavigableMap<String, Set<String>> byName = new TreeMap<>();
+    private final Map<String, Set<String>> byVersion = new HashMap<>();
+    private final Map<String, Set<String>> byMetadata = new HashMap<>();
+    private final Map<String, Set<String>> byHost = new HashMap<>();
+    private final NavigableMap<Long, Set<String>> byRegistrationTime = new TreeMap<>();
+
+    /**
+     * Indexes an instance, replacing the previous one with the same service and id.
+     */
+    void put(final ServiceInstance instance) {
+        String key = key(instance);
+        lock.writeLock().lock();
+        try {
+            ServiceInstance previous = instances.put(key, instance);
+            if (previous != null) {
+                unindex(key, previous);
+            }
+            index(key, instance);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(final ServiceInstance instance) {
+        String key = key(instance);
+        lock.writeLock().lock();
+        try {
+            ServiceInstance previous = instances.remove(key);
+            if (previous != null) {
+                unindex(key, previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Matching instances, sorted by service name and id.
+     */
+    List<ServiceInstance> query(final CatalogQuery query) {
+        lock.readLock().lock();
+        try {
+            List<ServiceInstance> matching = new ArrayList<>();
+            for (Collection<String> keys : candidates(query)) {
+                for (String key : keys) {
+                    ServiceInstance instance = instances.get(key);
+                    if (query.matches(instance)) {
+                        matching.add(instance);
+                    }
+                }
+            }
+            matching.sort(CatalogQuery.ORDER);
+            return matching;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Keys of the instances that may match: the smallest index entry of the equality criteria,
+     * otherwise the name prefix range, the registration time range, or all instances.
+     */
+    private Collection<? extends Collection<String>> candidates(final CatalogQuery query) {
+        Set<String> smallest = null;
+        if (query.getVersion() != null) {
+            smallest = smaller(smallest, byVersion.get(query.getVersion()));
+        }
+        for (Map.Entry<String, String> entry : query.getMetadata().entrySet()) {
+            smallest = smaller(smallest, byMetadata.get(metadataToken(entry.getKey(), entry.getValue())));
+        }
+        if (query.getHost() != null) {
+            smallest = smaller(smallest, byHost.get(query.getHost()));
+        }
+        if (smallest != null) {
+            return Collections.singletonList(smallest);
+        }
+
+        if (query.getNamePrefix() != null) {
+            return byName.subMap(query.getNamePrefix(), true, query.getNamePrefix() + Character.MAX_VALUE, false).values();
+        }
+        if (query.hasTimeRange()) {
+            return byRegistrationTime.subMap(query.getRegisteredFrom(), true, query.getRegisteredTo(), true).values();
+        }
+        return Collections.singletonList(instances.keySet());
+    }
+
+    private static Set<String> smaller(final Set<String> current, final Set<String> keys) {
+        if (keys == null) {
+            return Collections.emptySet();
+        }
+        return current == null || keys.size() < current.size() ? keys : current;
+    }
+
+    private void index(final String key, final ServiceInstance instance) {
+        add(byName, instance.getServiceName(), key);
+        add(byVersion, instance.getVersion(), key);
+        instance.getMetadata().forEach((name, value) -> add(byMetadata, metadataToken(name, value), key));
+        for (String host : CatalogQuery.hosts(instance.getAddress())) {
+            add(byHost, host, key);
+        }
+        add(byRegistrationTime, instance.getRegistrationTime(), key);
+    }
+
+    private void unindex(final String key, final ServiceInstance instance) {
+        remove(byName, instance.getServiceName(), key);
+        remove(byVersion, instance.getVersion(), key);
+        instance.getMetadata().forEach((name, value) -> remove(byMetadata, metadataToken(name, value), key));
+        for (String host : CatalogQuery.hosts(instance.getAddress())) {
+            remove(byHost, host, key);
+        }
+        remove(byRegistrationTime, instance.getRegistrationTime(), key);
+    }
+
+    private static <T> void add(final Map<T, Set<String>> index, final T value, final String key) {
+        if (value != null) {
+            index.computeIfAbsent(value, v -> new HashSet<>()).add(key);
+        }
+    }
+
+    private static <T> void remove(final Map<T, Set<String>> index, final T value, final String key) {
+        if (value == null) {
+            return;
+        }
+        Set<String> keys = index.get(value);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            index.remove(value);
+        }
+    }
+
+    private static String metadataToken(final String name, final String value) {
+        return name + '\u0000' + value;
+    }
+
+    private static String key(final ServiceInstance instance) {
+        return instance.getServiceName() + ZKPaths.PATH_SEPARATOR + instance.getId();
+    }
+}
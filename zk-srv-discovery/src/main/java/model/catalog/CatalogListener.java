@@ -0,0 +1,10 @@
+package model.catalog;
+
+/**
+ * Receives instance changes once the catalog is initialized.
+ * Called on the catalog event thread after the new snapshot is published, must not block.
+ */
+@FunctionalInterface
+public interface CatalogListener {
+    void catalogChanged(CatalogEvent event);
+}
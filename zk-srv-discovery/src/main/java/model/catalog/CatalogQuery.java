@@ -0,0 +1,161 @@
+package model.catalog;
+
+import model.util.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filter of service instances, every given criterion has to match:
+ * service name prefix, version, metadata key/value pairs, host (name or address)
+ * and registration time range (inclusive, millis).
+ * <p>
+ * Example:
+ * new CatalogQuery().namePrefix("Worker").version("1.0.0").metadata("zone", "a")
+ */
+public final class CatalogQuery {
+
+    // Order of query results, as in the catalog snapshots.
+    static final Comparator<ServiceInstance> ORDER = Comparator
+            .comparing(ServiceInstance::getServiceName, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ServiceInstance::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private String namePrefix;
+    private String version;
+    private final Map<String, String> metadata = new LinkedHashMap<>();
+    private String host;
+    private long registeredFrom = Long.MIN_VALUE;
+    private long registeredTo = Long.MAX_VALUE;
+
+    public CatalogQuery namePrefix(final String namePrefix) {
+        this.namePrefix = namePrefix;
+        return this;
+    }
+
+    public CatalogQuery version(final String version) {
+        this.version = version;
+        return this;
+    }
+
+    public CatalogQuery metadata(final String key, final String value) {
+        metadata.put(key, value);
+        return this;
+    }
+
+    /**
+     * @param host - host name or address, as registered.
+     */
+    public CatalogQuery host(final String host) {
+        this.host = host;
+        return this;
+    }
+
+    /**
+     * @param from - in millis, inclusive.
+     * @param to   - in millis, inclusive.
+     */
+    public CatalogQuery registeredBetween(final long from, final long to) {
+        this.registeredFrom = from;
+        this.registeredTo = to;
+        return this;
+    }
+
+    String getNamePrefix() {
+        return namePrefix;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    long getRegisteredFrom() {
+        return registeredFrom;
+    }
+
+    long getRegisteredTo() {
+        return registeredTo;
+    }
+
+    boolean hasTimeRange() {
+        return registeredFrom != Long.MIN_VALUE || registeredTo != Long.MAX_VALUE;
+    }
+
+    public boolean matches(final ServiceInstance instance) {
+        if (namePrefix != null && (instance.getServiceName() == null || !instance.getServiceName().startsWith(namePrefix))) {
+            return false;
+        }
+        if (version != null && !version.equals(instance.getVersion())) {
+            return false;
+        }
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            if (!entry.getValue().equals(instance.getMetadata().get(entry.getKey()))) {
+                return false;
+            }
+        }
+        if (host != null && !hasHost(instance.getAddress(), host)) {
+            return false;
+        }
+        return instance.getRegistrationTime() >= registeredFrom && instance.getRegistrationTime() <= registeredTo;
+    }
+
+    /**
+     * Scans all instances of given snapshot, for snapshots not indexed (see Catalog.query).
+     *
+     * @return Matching instances, sorted by service name and id.
+     */
+    public List<ServiceInstance> filter(final CatalogSnapshot snapshot) {
+        List<ServiceInstance> matching = new ArrayList<>();
+        for (List<ServiceInstance> instances : snapshot.getServices().values()) {
+            for (ServiceInstance instance : instances) {
+                if (matches(instance)) {
+                    matching.add(instance);
+                }
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * @return true if given host is one of the space separated hosts of an instance address.
+     */
+    private static boolean hasHost(final String address, final String host) {
+        if (address == null || host.isEmpty()) {
+            return false;
+        }
+        for (int i = address.indexOf(host); i >= 0; i = address.indexOf(host, i + 1)) {
+            int end = i + host.length();
+            if ((i == 0 || address.charAt(i - 1) == ' ') && (end == address.length() || address.charAt(end) == ' ')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Host names and addresses of an instance address, e.g. "host-1 10.0.0.1".
+     */
+    static List<String> hosts(final String address) {
+        if (address == null || address.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> hosts = new ArrayList<>(2);
+        for (String token : address.split(" ")) {
+            if (!token.isEmpty()) {
+                hosts.add(token);
+            }
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,97 @@
+package model.catalog;
+
+import model.util.ServiceInstance;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Immutable view of all registered service instances at a given catalog version.
+ * Services are sorted by name, instances of a service are sorted by id.
+ * Every service has an index, the catalog version of its last change.
+ * <p>
+ * The services are a persistent tree (see ServiceTree): the snapshot of a change (with) shares
+ * everything but the changed service with the previous one.
+ * <p>
+ * Instances are also addressable by position in that order (see page), for paging through a snapshot.
+ */
+public final class CatalogSnapshot {
+
+    static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, ServiceTree.EMPTY);
+
+    private final long version;
+    private final ServiceTree services;
+
+    CatalogSnapshot(final long version, final SortedMap<String, List<ServiceInstance>> services) {
+        this(version, services, new HashMap<>());
+    }
+
+    CatalogSnapshot(final long version,
+                    final SortedMap<String, List<ServiceInstance>> services,
+                    final Map<String, Long> indexes) {
+        this(version, ServiceTree.of(services, indexes));
+    }
+
+    private CatalogSnapshot(final long version, final ServiceTree services) {
+        this.version = version;
+        this.services = services;
+    }
+
+    /**
+     * @param instances - null when the service is removed.
+     * @return Snapshot at given version, where only given service changed.
+     */
+    CatalogSnapshot with(final long version, final String serviceName, final List<ServiceInstance> instances) {
+        return new CatalogSnapshot(version, services.with(serviceName, instances, version));
+    }
+
+    /**
+     * @return Catalog version, moves forward on every applied change.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return All services (by name) with their instances.
+     */
+    public SortedMap<String, List<ServiceInstance>> getServices() {
+        return services;
+    }
+
+    /**
+     * @return Instances registered with given serviceName, empty if unknown.
+     */
+    public List<ServiceInstance> getInstances(final String serviceName) {
+        return services.getOrDefault(serviceName, Collections.emptyList());
+    }
+
+    /**
+     * @return Catalog version of the last change to given service, 0 if it never changed.
+     */
+    public long getIndex(final String serviceName) {
+        return services.getIndex(serviceName);
+    }
+
+    /**
+     * @return Number of instances in the snapshot.
+     */
+    public int size() {
+        return services.instances();
+    }
+
+    /**
+     * Instances from given position on, in snapshot order (service name, then id).
+     * Costs the page size, plus O(log services) to find the first instance (see ServiceTree).
+     *
+     * @param offset - position of the first instance.
+     * @param limit  - max number of instances.
+     * @return Services of the page with their instances on the page.
+     */
+    public SortedMap<String, List<ServiceInstance>> page(final int offset, final int limit) {
+        return services.page(offset, limit);
+    }
+}
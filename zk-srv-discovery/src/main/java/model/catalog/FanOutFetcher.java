@@ -0,0 +1,268 @@
+package model.catalog;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import model.util.ServiceInstance;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads service instances straight from zk, used while no catalog view exists.
+ * <p>
+ * All getChildren/getData calls are issued as Curator background operations,
+ * so the per-name and per-instance reads are pipelined instead of one round trip each.
+ * At most maxInFlight operations are outstanding per fetch, and a fetch that misses
+ * its deadline completes with whatever was read so far (see FetchResult#getMissing).
+ */
+public class FanOutFetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanOutFetcher.class);
+
+    private static final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "FanOutFetcher Deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Latency of each zk read, queryForNames (children of the base path) and queryForInstances.
+    private static final Timer getChildrenTimer = zkTimer("getChildren");
+    private static final Timer getDataTimer = zkTimer("getData");
+
+    private final CuratorFramework client;
+    private final String basePath;
+    private final int maxInFlight;
+    private final long deadlineMillis;
+    private final InstanceConverter converter;
+
+    public FanOutFetcher(final CuratorFramework client,
+                         final String basePath,
+                         final int maxInFlight,
+                         final long deadlineMillis) {
+        this(client, basePath, maxInFlight, deadlineMillis, new InstanceConverter());
+    }
+
+    public FanOutFetcher(final CuratorFramework client,
+                         final String basePath,
+                         final int maxInFlight,
+                         final long deadlineMillis,
+                         final InstanceConverter converter) {
+        this.client = client;
+        this.converter = converter;
+        this.basePath = basePath;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Reads all services and their instances.
+     */
+    public CompletableFuture<FetchResult> fetchAll() {
+        Fetch fetch = new Fetch();
+        getChildren(fetch, basePath, names -> names.forEach(name -> fetchService(fetch, name)));
+        return fetch.start();
+    }
+
+    /**
+     * Reads the instances of a single service.
+     */
+    public CompletableFuture<FetchResult> fetch(final String serviceName) {
+        Fetch fetch = new Fetch();
+        fetchService(fetch, serviceName);
+        return fetch.start();
+    }
+
+    private void fetchService(final Fetch fetch, final String serviceName) {
+        String servicePath = ZKPaths.makePath(basePath, serviceName);
+        getChildren(fetch, servicePath, ids -> {
+            fetch.addService(serviceName);
+            ids.forEach(id -> getInstance(fetch, serviceName, ZKPaths.makePath(servicePath, id)));
+        });
+    }
+
+    private void getChildren(final Fetch fetch, final String path, final ChildrenHandler handler) {
+        fetch.submit(path, getChildrenTimer, callback -> client.getChildren().inBackground(callback).forPath(path), event -> {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                handler.accept(event.getChildren());
+            }
+        });
+    }
+
+    private void getInstance(final Fetch fetch, final String serviceName, final String path) {
+        fetch.submit(path, getDataTimer, callback -> client.getData().inBackground(callback).forPath(path), event -> {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                ServiceInstance instance = converter.convert(path, event.getStat(), event.getData());
+                fetch.addInstance(serviceName, instance);
+            }
+        });
+    }
+
+    private static Timer zkTimer(final String operation) {
+        return Timer.builder("zk.operations")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    @FunctionalInterface
+    private interface ChildrenHandler {
+        void accept(List<String> children);
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void issue(BackgroundCallback callback) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface ResultHandler {
+        void handle(CuratorEvent event) throws Exception;
+    }
+
+    /**
+     * State of one fetch: results so far, queued and outstanding operations.
+     */
+    private final class Fetch {
+
+        private final CompletableFuture<FetchResult> future = new CompletableFuture<>();
+        private final SortedMap<String, SortedMap<String, ServiceInstance>> services = new TreeMap<>();
+        private final Set<String> failed = new TreeSet<>();
+        private final Deque<Runnable> queue = new ArrayDeque<>();
+        private final Set<String> outstanding = new HashSet<>();
+        private int inFlight;
+        private boolean draining;
+        private boolean done;
+        private ScheduledFuture<?> deadline;
+
+        synchronized CompletableFuture<FetchResult> start() {
+            if (!done) {
+                deadline = deadlines.schedule(() -> finish(), deadlineMillis, TimeUnit.MILLISECONDS);
+            }
+            return future;
+        }
+
+        void submit(final String path, final Timer timer, final Operation operation, final ResultHandler handler) {
+            Runnable issue = () -> {
+                long issued = System.nanoTime();
+                try {
+                    operation.issue((c, event) -> {
+                        timer.record(System.nanoTime() - issued, TimeUnit.NANOSECONDS);
+                        int rc = event.getResultCode();
+                        try {
+                            handler.handle(event);
+                            if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+                                failed(path);
+                            }
+                        } catch (Exception e) {
+                            logger.error("Failed reading " + path, e);
+                            failed(path);
+                        }
+                        completed(path);
+                    });
+                } catch (Exception e) {
+                    logger.error("Failed reading " + path, e);
+                    failed(path);
+                    completed(path);
+                }
+            };
+            synchronized (this) {
+                outstanding.add(path);
+                queue.add(issue);
+            }
+            drain();
+        }
+
+        synchronized void addService(final String serviceName) {
+            services.computeIfAbsent(serviceName, name -> new TreeMap<>());
+        }
+
+        synchronized void addInstance(final String serviceName, final ServiceInstance instance) {
+            services.computeIfAbsent(serviceName, name -> new TreeMap<>()).put(instance.getId(), instance);
+        }
+
+        private synchronized void failed(final String path) {
+            failed.add(path);
+        }
+
+        private void completed(final String path) {
+            synchronized (this) {
+                --inFlight;
+                outstanding.remove(path);
+                if (outstanding.isEmpty()) {
+                    finish();
+                    return;
+                }
+            }
+            drain();
+        }
+
+        /**
+         * Issues queued operations while under maxInFlight, outside the lock.
+         * A single thread drains at a time: operations queued or completed meanwhile (even synchronously,
+         * from an operation being issued) are picked up by its loop instead of recursing.
+         */
+        private void drain() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    if (done || inFlight >= maxInFlight || queue.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    ++inFlight;
+                    next = queue.poll();
+                }
+                next.run();
+            }
+        }
+
+        /**
+         * Completes the fetch, anything still outstanding is reported missing.
+         */
+        private synchronized void finish() {
+            if (done) {
+                return;
+            }
+            done = true;
+            queue.clear();
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+
+            Set<String> missing = new TreeSet<>(failed);
+            missing.addAll(outstanding);
+
+            SortedMap<String, List<ServiceInstance>> result = new TreeMap<>();
+            services.forEach((name, instances) ->
+                    result.put(name, Collections.unmodifiableList(new ArrayList<>(instances.values()))));
+
+            future.complete(new FetchResult(new CatalogSnapshot(0, result), missing, false));
+        }
+    }
+}
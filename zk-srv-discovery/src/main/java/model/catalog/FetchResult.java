@@ -0,0 +1,72 @@
+package model.catalog;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Result of a catalog read: the instances found, and whether the read is complete.
+ * An incomplete result lists the zk paths that failed or did not answer in time.
+ * A cached result comes from the catalog, its snapshot version identifies the content.
+ * A stale result comes from a saved snapshot (see SnapshotFile), while zk is not available.
+ */
+public final class FetchResult {
+
+    private final CatalogSnapshot snapshot;
+    private final Set<String> missing;
+    private final boolean cached;
+    // Time of the snapshot in millis, 0 when live.
+    private final long staleSince;
+
+    FetchResult(final CatalogSnapshot snapshot, final Set<String> missing, final boolean cached) {
+        this(snapshot, missing, cached, 0);
+    }
+
+    private FetchResult(final CatalogSnapshot snapshot, final Set<String> missing, final boolean cached, final long staleSince) {
+        this.snapshot = snapshot;
+        this.missing = Collections.unmodifiableSet(missing);
+        this.cached = cached;
+        this.staleSince = staleSince;
+    }
+
+    /**
+     * @return A complete result over given catalog snapshot.
+     */
+    public static FetchResult of(final CatalogSnapshot snapshot) {
+        return new FetchResult(snapshot, Collections.emptySet(), true);
+    }
+
+    /**
+     * @param since - time of the snapshot in millis.
+     * @return A result over a snapshot that may be out of date.
+     */
+    public static FetchResult stale(final CatalogSnapshot snapshot, final long since) {
+        return new FetchResult(snapshot, Collections.emptySet(), false, since);
+    }
+
+    public CatalogSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public Set<String> getMissing() {
+        return missing;
+    }
+
+    public boolean isComplete() {
+        return missing.isEmpty();
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public boolean isStale() {
+        return staleSince != 0;
+    }
+
+    /**
+     * @return Time of the snapshot in millis, 0 when live.
+     */
+    public long getStaleSince() {
+        return staleSince;
+    }
+}
@@ -0,0 +1,89 @@
+package model.catalog;
+
+import model.util.InstancePayload;
+import model.util.InstancePayloadSerializer;
+import model.util.ServiceInstance;
+import org.apache.curator.x.discovery.details.InstanceSerializer;
+import org.apache.zookeeper.data.Stat;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Converts services from zk (Curator ServiceInstance) to readable ServiceInstance POJO.
+ * <p>
+ * Conversions are memoized by znode path and mzxid (changes on every write and on re-creation),
+ * so an instance is deserialized and formatted once per zk change, not once per read.
+ */
+public class InstanceConverter {
+
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final InstanceSerializer<InstancePayload> serializer;
+    private final ConcurrentMap<String, Converted> converted = new ConcurrentHashMap<>();
+
+    public InstanceConverter() {
+        // Reads binary and JSON instances alike.
+        this(InstancePayloadSerializer.binary());
+    }
+
+    public InstanceConverter(final InstanceSerializer<InstancePayload> serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * @param path - znode path of the instance.
+     * @param stat - znode stat, identifies the version of data.
+     * @param data - serialized instance.
+     * @return Instance as POJO.
+     */
+    public ServiceInstance convert(final String path, final Stat stat, final byte[] data) throws Exception {
+        Converted cached = converted.get(path);
+        if (cached != null && cached.mzxid == stat.getMzxid()) {
+            return cached.instance;
+        }
+
+        ServiceInstance instance = toPojo(serializer.deserialize(data));
+        converted.put(path, new Converted(stat.getMzxid(), instance));
+        return instance;
+    }
+
+    /**
+     * Drops the memoized conversion of a removed instance.
+     */
+    public void evict(final String path) {
+        converted.remove(path);
+    }
+
+    public static ServiceInstance toPojo(final org.apache.curator.x.discovery.ServiceInstance<?> instance) {
+        InstancePayload payload = instance.getPayload() instanceof InstancePayload
+                ? (InstancePayload) instance.getPayload()
+                : null;
+        return new ServiceInstance(
+                instance.getName(),
+                instance.getAddress(),
+                instance.getPort(),
+                String.valueOf(instance.getPayload()),
+                DATE_FORMATTER.format(Instant.ofEpochMilli(instance.getRegistrationTimeUTC())),
+                instance.getId(),
+                instance.getRegistrationTimeUTC(),
+                payload == null ? null : payload.getVersion(),
+                payload == null ? Collections.emptyMap() : payload.getMetadata()
+        );
+    }
+
+    private static final class Converted {
+        private final long mzxid;
+        private final ServiceInstance instance;
+
+        private Converted(final long mzxid, final ServiceInstance instance) {
+            this.mzxid = mzxid;
+            this.instance = instance;
+        }
+    }
+}
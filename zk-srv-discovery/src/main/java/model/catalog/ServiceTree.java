@@ -0,0 +1,344 @@
+package model.catalog;
+
+import model.util.ServiceInstance;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Services of a snapshot by name, with their instances and index: an immutable, persistent AVL tree.
+ * <p>
+ * A change (with) copies the path to the changed service only, O(log services), the rest of the tree
+ * is shared with the previous snapshot. Removed services are kept as entries without instances,
+ * so their index is kept too, but are not part of the map.
+ * Every node also counts the services and instances below it, so size() is O(1),
+ * and an instance position is found in O(log services) (see page).
+ * <p>
+ * Range views (subMap, headMap, tailMap) are copies, the catalog never asks for them.
+ */
+final class ServiceTree extends AbstractMap<String, List<ServiceInstance>>
+        implements SortedMap<String, List<ServiceInstance>> {
+
+    static final ServiceTree EMPTY = new ServiceTree(null);
+
+    private final Node root;
+
+    private ServiceTree(final Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @return Tree of given services and indexes, indexes of services not in services are kept as removed.
+     */
+    static ServiceTree of(final SortedMap<String, List<ServiceInstance>> services, final Map<String, Long> indexes) {
+        Set<String> names = new TreeSet<>(services.keySet());
+        names.addAll(indexes.keySet());
+        String[] sorted = names.toArray(new String[0]);
+        return new ServiceTree(build(sorted, 0, sorted.length, services, indexes));
+    }
+
+    /**
+     * @param instances - null when the service is removed.
+     * @return Tree where given service has given instances and index.
+     */
+    ServiceTree with(final String name, final List<ServiceInstance> instances, final long index) {
+        return new ServiceTree(put(root, name, instances, index));
+    }
+
+    /**
+     * @return Catalog version of the last change to given service, 0 if unknown.
+     */
+    long getIndex(final String name) {
+        Node node = find(name);
+        return node == null ? 0 : node.index;
+    }
+
+    /**
+     * @return Number of instances of all services.
+     */
+    int instances() {
+        return root == null ? 0 : root.size;
+    }
+
+    /**
+     * Instances from given position on, in order of service name then id.
+     * Costs O(log services) to find the first one, then the page size.
+     *
+     * @return Services of the page with their instances on the page.
+     */
+    SortedMap<String, List<ServiceInstance>> page(final int offset, final int limit) {
+        SortedMap<String, List<ServiceInstance>> page = new TreeMap<>();
+        if (offset < 0 || offset >= instances() || limit <= 0) {
+            return page;
+        }
+
+        Entries entries = new Entries();
+        int from = entries.seek(root, offset);
+        int remaining = limit;
+        while (remaining > 0 && entries.hasNext()) {
+            Entry<String, List<ServiceInstance>> service = entries.next();
+            List<ServiceInstance> instances = service.getValue();
+            int to = Math.min(instances.size(), from + remaining);
+            if (to > from) {
+                page.put(service.getKey(), instances.subList(from, to));
+                remaining -= to - from;
+            }
+            from = 0;
+        }
+        return page;
+    }
+
+    @Override
+    public List<ServiceInstance> get(final Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        Node node = find((String) key);
+        return node == null ? null : node.instances;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return root == null ? 0 : root.services;
+    }
+
+    @Override
+    public Set<Entry<String, List<ServiceInstance>>> entrySet() {
+        return new AbstractSet<Entry<String, List<ServiceInstance>>>() {
+            @Override
+            public Iterator<Entry<String, List<ServiceInstance>>> iterator() {
+                Entries entries = new Entries();
+                entries.descend(root);
+                entries.advance();
+                return entries;
+            }
+
+            @Override
+            public int size() {
+                return ServiceTree.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return null;
+    }
+
+    @Override
+    public SortedMap<String, List<ServiceInstance>> subMap(final String fromKey, final String toKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).subMap(fromKey, toKey));
+    }
+
+    @Override
+    public SortedMap<String, List<ServiceInstance>> headMap(final String toKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).headMap(toKey));
+    }
+
+    @Override
+    public SortedMap<String, List<ServiceInstance>> tailMap(final String fromKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).tailMap(fromKey));
+    }
+
+    @Override
+    public String firstKey() {
+        return entrySet().iterator().next().getKey();
+    }
+
+    @Override
+    public String lastKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return new TreeMap<>(this).lastKey();
+    }
+
+    private Node find(final String name) {
+        Node node = root;
+        while (node != null) {
+            int compared = name.compareTo(node.name);
+            if (compared == 0) {
+                return node;
+            }
+            node = compared < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    private static Node build(final String[] names,
+                              final int from,
+                              final int to,
+                              final SortedMap<String, List<ServiceInstance>> services,
+                              final Map<String, Long> indexes) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        String name = names[middle];
+        return new Node(name, services.get(name), indexes.getOrDefault(name, 0L),
+                build(names, from, middle, services, indexes), build(names, middle + 1, to, services, indexes));
+    }
+
+    private static Node put(final Node node, final String name, final List<ServiceInstance> instances, final long index) {
+        if (node == null) {
+            return new Node(name, instances, index, null, null);
+        }
+        int compared = name.compareTo(node.name);
+        if (compared == 0) {
+            return new Node(name, instances, index, node.left, node.right);
+        }
+        return compared < 0
+                ? balance(node.with(put(node.left, name, instances, index), node.right))
+                : balance(node.with(node.left, put(node.right, name, instances, index)));
+    }
+
+    private static Node balance(final Node node) {
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            Node left = height(node.left.left) >= height(node.left.right) ? node.left : rotateLeft(node.left);
+            return rotateRight(node.with(left, node.right));
+        }
+        if (balance < -1) {
+            Node right = height(node.right.right) >= height(node.right.left) ? node.right : rotateRight(node.right);
+            return rotateLeft(node.with(node.left, right));
+        }
+        return node;
+    }
+
+    private static Node rotateRight(final Node node) {
+        Node left = node.left;
+        return left.with(left.left, node.with(left.right, node.right));
+    }
+
+    private static Node rotateLeft(final Node node) {
+        Node right = node.right;
+        return right.with(node.with(node.left, right.left), right.right);
+    }
+
+    private static int height(final Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(final Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node {
+        private final String name;
+        // null when removed.
+        private final List<ServiceInstance> instances;
+        private final long index;
+        private final Node left;
+        private final Node right;
+        private final int height;
+        // Services and instances of this subtree.
+        private final int services;
+        private final int size;
+
+        private Node(final String name,
+                     final List<ServiceInstance> instances,
+                     final long index,
+                     final Node left,
+                     final Node right) {
+            this.name = name;
+            this.instances = instances;
+            this.index = index;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            this.services = (instances == null ? 0 : 1)
+                    + (left == null ? 0 : left.services) + (right == null ? 0 : right.services);
+            this.size = own() + size(left) + size(right);
+        }
+
+        private int own() {
+            return instances == null ? 0 : instances.size();
+        }
+
+        private Node with(final Node left, final Node right) {
+            return new Node(name, instances, index, left, right);
+        }
+    }
+
+    /**
+     * In order, removed services skipped.
+     */
+    private static final class Entries implements Iterator<Entry<String, List<ServiceInstance>>> {
+        private final Deque<Node> path = new ArrayDeque<>();
+        private Node next;
+
+        /**
+         * Starts at the service holding the instance at given position, from the root.
+         *
+         * @return Position of that instance within its service.
+         */
+        private int seek(final Node root, final int offset) {
+            int position = offset;
+            Node node = root;
+            while (node != null) {
+                int left = size(node.left);
+                path.push(node);
+                if (position < left) {
+                    node = node.left;
+                } else if (position < left + node.own()) {
+                    advance();
+                    return position - left;
+                } else {
+                    path.pop();
+                    position -= left + node.own();
+                    node = node.right;
+                }
+            }
+            throw new IndexOutOfBoundsException("No instance at " + offset);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<String, List<ServiceInstance>> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Node current = next;
+            advance();
+            return new SimpleImmutableEntry<>(current.name, current.instances);
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && !path.isEmpty()) {
+                Node node = path.pop();
+                descend(node.right);
+                if (node.instances != null) {
+                    next = node;
+                }
+            }
+        }
+
+        private void descend(final Node from) {
+            for (Node node = from; node != null; node = node.left) {
+                path.push(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package model.catalog;
+
+import model.util.ServiceInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Catalog snapshot saved to a local file, served (marked stale) when zk is not available
+ * and on start until the catalog is loaded.
+ * <p>
+ * Written to a temp file and renamed over the previous one, so a crash never leaves a torn file.
+ * Read with a single memory-mapped read, and dropped unless its CRC32 matches
+ * and it was written for the same zk connect string and base path.
+ * <p>
+ * Format: MAGIC, FORMAT_VERSION, source, written at (millis), catalog version,
+ * services count, then per service its name, instances count and instances
+ * (name, address, port, payload, date, id, registration time, version, metadata count and key/value pairs),
+ * and last the CRC32 of all the above. Strings are length-prefixed UTF-8, -1 for null.
+ * Files of format 1, without registration time, version and metadata, are still read.
+ */
+public final class SnapshotFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotFile.class);
+
+    private static final int MAGIC = 0x5A4B4453; // ZKDS
+    private static final int FORMAT_VERSION = 2;
+    private static final int CHECKSUM_SIZE = Long.BYTES;
+
+    private final Path path;
+    private final String source;
+
+    /**
+     * @param source - identifies the catalog, e.g. zk connect string and base path.
+     */
+    public SnapshotFile(final Path path, final String source) {
+        this.path = path;
+        this.source = source;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public void write(final CatalogSnapshot snapshot) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new CheckedOutputStream(file, crc), 64 * 1024));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, source);
+                out.writeLong(System.currentTimeMillis());
+                out.writeLong(snapshot.getVersion());
+                out.writeInt(snapshot.getServices().size());
+                for (Map.Entry<String, List<ServiceInstance>> service : snapshot.getServices().entrySet()) {
+                    writeString(out, service.getKey());
+                    out.writeInt(service.getValue().size());
+                    for (ServiceInstance instance : service.getValue()) {
+                        writeString(out, instance.getServiceName());
+                        writeString(out, instance.getAddress());
+                        out.writeInt(instance.getPort());
+                        writeString(out, instance.getPayload());
+                        writeString(out, instance.getDate());
+                        writeString(out, instance.getId());
+                        out.writeLong(instance.getRegistrationTime());
+                        writeString(out, instance.getVersion());
+                        out.writeInt(instance.getMetadata().size());
+                        for (Map.Entry<String, String> entry : instance.getMetadata().entrySet()) {
+                            writeString(out, entry.getKey());
+                            writeString(out, entry.getValue());
+                        }
+                    }
+                }
+                out.flush();
+                // Not part of the checksum.
+                new DataOutputStream(file).writeLong(crc.getValue());
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return The saved snapshot as a stale result, null if there is none usable.
+     */
+    public FetchResult read() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < CHECKSUM_SIZE || size > Integer.MAX_VALUE) {
+                logger.warn("Ignoring snapshot " + path + ", invalid size " + size);
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            ByteBuffer content = buffer.duplicate();
+            content.limit((int) size - CHECKSUM_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            if (crc.getValue() != buffer.getLong((int) size - CHECKSUM_SIZE)) {
+                logger.warn("Ignoring snapshot " + path + ", checksum mismatch");
+                return null;
+            }
+
+            int format = buffer.getInt() == MAGIC ? buffer.getInt() : -1;
+            if (format != 1 && format != FORMAT_VERSION) {
+                logger.warn("Ignoring snapshot " + path + ", unknown format");
+                return null;
+            }
+            String writtenFor = readString(buffer);
+            if (!source.equals(writtenFor)) {
+                logger.info("Ignoring snapshot " + path + " of " + writtenFor);
+                return null;
+            }
+            long writtenAt = buffer.getLong();
+            long version = buffer.getLong();
+
+            SortedMap<String, List<ServiceInstance>> services = new TreeMap<>();
+            int servicesCount = buffer.getInt();
+            for (int i = 0; i < servicesCount; i++) {
+                String name = readString(buffer);
+                int count = buffer.getInt();
+                List<ServiceInstance> instances = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    instances.add(format == 1 ? new ServiceInstance(
+                            readString(buffer),
+                            readString(buffer),
+                            buffer.getInt(),
+                            readString(buffer),
+                            readString(buffer),
+                            readString(buffer)) : readInstance(buffer));
+                }
+                services.put(name, Collections.unmodifiableList(instances));
+            }
+
+            CatalogSnapshot snapshot = new CatalogSnapshot(version, services);
+            logger.info("Loaded snapshot " + path + " with " + snapshot.size() + " instances");
+            return FetchResult.stale(snapshot, writtenAt);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable snapshot " + path, e);
+            return null;
+        }
+    }
+
+    private static ServiceInstance readInstance(final ByteBuffer buffer) {
+        String serviceName = readString(buffer);
+        String address = readString(buffer);
+        int port = buffer.getInt();
+        String payload = readString(buffer);
+        String date = readString(buffer);
+        String id = readString(buffer);
+        long registrationTime = buffer.getLong();
+        String version = readString(buffer);
+        int metadataCount = buffer.getInt();
+        Map<String, String> metadata = metadataCount == 0 ? Collections.emptyMap() : new LinkedHashMap<>();
+        for (int i = 0; i < metadataCount; i++) {
+            metadata.put(readString(buffer), readString(buffer));
+        }
+        return new ServiceInstance(serviceName, address, port, payload, date, id, registrationTime, version,
+                Collections.unmodifiableMap(metadata));
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
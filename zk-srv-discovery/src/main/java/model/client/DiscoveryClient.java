@@ -0,0 +1,170 @@
+package model.client;
+
+import model.catalog.Catalog;
+import model.catalog.InstanceConverter;
+import model.util.Liveness;
+import model.util.ServiceInstance;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.utils.CloseableUtils;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embeddable client side discovery: resolves a service name to one of its live instances.
+ * <p>
+ * Instances are read from a local watch-backed Catalog (stale TTL instances left out),
+ * so resolving is a volatile read and a map lookup, ZK is only read when something changes.
+ * <p>
+ * Example:
+ * DiscoveryClient client = new DiscoveryClient("localhost:3181", LoadBalancers.powerOfTwoChoices());
+ * client.start();
+ * try (Lease lease = client.lease("Worker_1")) {
+ *     call(lease.getInstance());
+ * }
+ */
+public class DiscoveryClient implements Closeable {
+
+    private static final String PATH = "/zk-srv-discovery";
+    private static final long START_TIMEOUT_SECONDS = 10;
+
+    private final CuratorFramework client;
+    private final boolean ownsClient;
+    private final Catalog catalog;
+    private final LoadBalancer loadBalancer;
+
+    // Leased requests per instance id, only while some are outstanding: a counter is dropped when it gets
+    // back to 0 (and never counts again), not when its instance is removed, so leases outliving
+    // a removal (e.g. stale for a while) are still counted when it comes back.
+    private final ConcurrentMap<String, AtomicInteger> outstanding = new ConcurrentHashMap<>();
+
+    public DiscoveryClient(final String zkAddress, final LoadBalancer loadBalancer) {
+        this(CuratorFrameworkFactory.newClient(zkAddress, new ExponentialBackoffRetry(1000, 3)), true, PATH, loadBalancer);
+    }
+
+    /**
+     * @param client - started by the caller, and left open on close.
+     */
+    public DiscoveryClient(final CuratorFramework client, final String basePath, final LoadBalancer loadBalancer) {
+        this(client, false, basePath, loadBalancer);
+    }
+
+    private DiscoveryClient(final CuratorFramework client,
+                            final boolean ownsClient,
+                            final String basePath,
+                            final LoadBalancer loadBalancer) {
+        this.client = client;
+        this.ownsClient = ownsClient;
+        this.loadBalancer = loadBalancer;
+        this.catalog = new Catalog(client, basePath, Liveness.path(basePath), new InstanceConverter());
+    }
+
+    /**
+     * Starts watching, and waits for the instances to be loaded.
+     *
+     * @return true if loaded, false if not within 10 seconds (lookups find nothing until then).
+     */
+    public boolean start() throws Exception {
+        if (ownsClient) {
+            client.start();
+        }
+        catalog.start();
+        return catalog.awaitInitialized(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return Live instances of the service, empty if none.
+     */
+    public List<ServiceInstance> getInstances(final String serviceName) {
+        return catalog.getSnapshot().getInstances(serviceName);
+    }
+
+    /**
+     * @return An instance chosen by the load balancer, null if none is live.
+     */
+    public ServiceInstance resolve(final String serviceName) {
+        List<ServiceInstance> instances = getInstances(serviceName);
+        if (instances.isEmpty()) {
+            return null;
+        }
+        return loadBalancer.choose(serviceName, instances, this::outstandingOf);
+    }
+
+    /**
+     * Pins a key (session, user...) to an instance, see LoadBalancers.sticky.
+     *
+     * @return The instance of this key, null if none is live.
+     */
+    public ServiceInstance resolve(final String serviceName, final String stickyKey) {
+        List<ServiceInstance> instances = getInstances(serviceName);
+        if (instances.isEmpty()) {
+            return null;
+        }
+        return LoadBalancers.sticky(stickyKey, instances);
+    }
+
+    /**
+     * Resolves an instance and counts the request as outstanding until the lease is closed.
+     *
+     * @return Lease of the chosen instance, null if none is live.
+     */
+    public Lease lease(final String serviceName) {
+        ServiceInstance instance = resolve(serviceName);
+        if (instance == null) {
+            return null;
+        }
+        String id = instance.getId();
+        AtomicInteger count = acquire(id);
+        return new Lease(instance, () -> release(id, count));
+    }
+
+    @Override
+    public void close() {
+        catalog.close();
+        if (ownsClient) {
+            CloseableUtils.closeQuietly(client);
+        }
+    }
+
+    private int outstandingOf(final ServiceInstance instance) {
+        AtomicInteger count = outstanding.get(instance.getId());
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Counts one more request of given instance.
+     *
+     * @return The counter, to be released once.
+     */
+    private AtomicInteger acquire(final String id) {
+        while (true) {
+            AtomicInteger count = outstanding.get(id);
+            if (count == null) {
+                AtomicInteger first = new AtomicInteger(1);
+                if (outstanding.putIfAbsent(id, first) == null) {
+                    return first;
+                }
+                continue;
+            }
+            for (int current = count.get(); current > 0; current = count.get()) {
+                if (count.compareAndSet(current, current + 1)) {
+                    return count;
+                }
+            }
+            // Back to 0, being dropped: retry with a new counter.
+            outstanding.remove(id, count);
+        }
+    }
+
+    private void release(final String id, final AtomicInteger count) {
+        if (count.decrementAndGet() == 0) {
+            outstanding.remove(id, count);
+        }
+    }
+}
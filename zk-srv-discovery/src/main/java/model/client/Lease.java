@@ -0,0 +1,43 @@
+package model.client;
+
+import model.util.ServiceInstance;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An instance chosen for one request, counted as outstanding until closed.
+ * <p>
+ * Example:
+ * try (Lease lease = client.lease("Worker")) {
+ *     call(lease.getInstance());
+ * }
+ */
+public final class Lease implements Closeable {
+
+    private final ServiceInstance instance;
+    private final Runnable release;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param release - uncounts the request, run once on close.
+     */
+    Lease(final ServiceInstance instance, final Runnable release) {
+        this.instance = instance;
+        this.release = release;
+    }
+
+    public ServiceInstance getInstance() {
+        return instance;
+    }
+
+    /**
+     * Ends the request, only the first call counts.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package model.client;
+
+import model.util.ServiceInstance;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Chooses one instance of a service for a request (see LoadBalancers).
+ * Called on the request path of every caller, implementations must be thread-safe and must not block.
+ */
+@FunctionalInterface
+public interface LoadBalancer {
+
+    /**
+     * @param serviceName - name of the service.
+     * @param instances   - live instances of the service, never empty.
+     * @param outstanding - requests currently leased (DiscoveryClient.lease) per instance.
+     * @return One of the instances.
+     */
+    ServiceInstance choose(String serviceName, List<ServiceInstance> instances, ToIntFunction<ServiceInstance> outstanding);
+}
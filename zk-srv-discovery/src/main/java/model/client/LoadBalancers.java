@@ -0,0 +1,120 @@
+package model.client;
+
+import model.util.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Load balancing strategies of DiscoveryClient.
+ * <p>
+ * The strategies based on outstanding requests only see the requests leased
+ * with DiscoveryClient.lease from this client.
+ */
+public final class LoadBalancers {
+
+    private LoadBalancers() {
+    }
+
+    /**
+     * @return Each instance in turn, per service.
+     */
+    public static LoadBalancer roundRobin() {
+        ConcurrentMap<String, AtomicInteger> positions = new ConcurrentHashMap<>();
+        return (serviceName, instances, outstanding) -> {
+            AtomicInteger position = positions.get(serviceName);
+            if (position == null) {
+                position = positions.computeIfAbsent(serviceName, name -> new AtomicInteger());
+            }
+            return instances.get((position.getAndIncrement() & Integer.MAX_VALUE) % instances.size());
+        };
+    }
+
+    /**
+     * @return Any instance, uniformly.
+     */
+    public static LoadBalancer random() {
+        return (serviceName, instances, outstanding) ->
+                instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+    }
+
+    /**
+     * @return The instance with the fewest outstanding requests, the first one on ties.
+     */
+    public static LoadBalancer leastOutstanding() {
+        return (serviceName, instances, outstanding) -> {
+            ServiceInstance best = instances.get(0);
+            int fewest = outstanding.applyAsInt(best);
+            for (int i = 1; i < instances.size() && fewest > 0; i++) {
+                ServiceInstance instance = instances.get(i);
+                int count = outstanding.applyAsInt(instance);
+                if (count < fewest) {
+                    best = instance;
+                    fewest = count;
+                }
+            }
+            return best;
+        };
+    }
+
+    /**
+     * @return The less loaded of two random instances,
+     * close to leastOutstanding without scanning all instances nor herding on the same one.
+     */
+    public static LoadBalancer powerOfTwoChoices() {
+        return (serviceName, instances, outstanding) -> {
+            int size = instances.size();
+            if (size == 1) {
+                return instances.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            return lessLoaded(instances.get(first), instances.get(second), outstanding);
+        };
+    }
+
+    /**
+     * Rendezvous (highest random weight) hashing: the same key gets the same instance
+     * as long as it is live, and only the keys of a removed instance move.
+     *
+     * @return The instance given key is pinned to.
+     */
+    public static ServiceInstance sticky(final String key, final List<ServiceInstance> instances) {
+        long keyHash = mix(key.hashCode());
+        ServiceInstance best = null;
+        long bestWeight = Long.MIN_VALUE;
+        for (ServiceInstance instance : instances) {
+            long weight = mix(keyHash ^ instance.getId().hashCode());
+            if (best == null || weight > bestWeight) {
+                best = instance;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    private static ServiceInstance lessLoaded(final ServiceInstance first,
+                                              final ServiceInstance second,
+                                              final ToIntFunction<ServiceInstance> outstanding) {
+        return outstanding.applyAsInt(second) < outstanding.applyAsInt(first) ? second : first;
+    }
+
+    // MurmurHash3 finalizer.
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
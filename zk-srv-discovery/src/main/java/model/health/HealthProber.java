@@ -0,0 +1,433 @@
+package model.health;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import model.catalog.CatalogEvent;
+import model.catalog.CatalogListener;
+import model.util.Env;
+import model.util.ServiceInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Probes every instance of the catalog in the background: a TCP connect to address:port,
+ * or a GET of an HTTP path answered with 2xx/3xx, and keeps the last result per instance id.
+ * <p>
+ * All probes are non-blocking connects on a single selector thread, scheduled on a single thread,
+ * so thousands of instances are probed on two threads. Each instance is probed every interval
+ * give or take the jitter, so probes do not come in bursts. Instances are taken from the catalog:
+ * on changes, and by a full sync every interval (e.g. the instances loaded before the catalog was initialized).
+ * <p>
+ * Configured by env variables: health_probe_interval_ms (0, the default, disables probing),
+ * health_probe_timeout_ms (default 2000), health_probe_jitter_pct (default 20),
+ * health_probe_http_path (default none: TCP connect only), health_probe_max_in_flight (default 1024,
+ * instances due while that many probes are running wait for the next round).
+ */
+public class HealthProber implements CatalogListener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HealthProber.class);
+
+    private static final Counter healthy = Metrics.counter("health.probes", "result", "healthy");
+    private static final Counter unhealthy = Metrics.counter("health.probes", "result", "unhealthy");
+    private static final Counter skipped = Metrics.counter("health.probes", "result", "skipped");
+
+    // Bytes of a status line needed to read the status, "HTTP/1.1 200".
+    private static final int STATUS_LINE_LENGTH = 12;
+
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final double jitter;
+    private final byte[] httpRequest;
+    private final String httpPath;
+    private final int maxInFlight;
+    private final Supplier<Map<String, ? extends Collection<ServiceInstance>>> catalog;
+
+    private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+
+    private final ScheduledExecutorService scheduler;
+    private final Selector selector;
+    private final Queue<Probe> pending = new ConcurrentLinkedQueue<>();
+    private final Thread selectorThread;
+    private volatile boolean running;
+
+    /**
+     * @param catalog  - current instances of the catalog by service name, null while not initialized.
+     * @param httpPath - path to GET, null for a TCP connect only.
+     */
+    public HealthProber(final Supplier<Map<String, ? extends Collection<ServiceInstance>>> catalog,
+                        final long intervalMillis,
+                        final long timeoutMillis,
+                        final double jitter,
+                        final String httpPath,
+                        final int maxInFlight) throws IOException {
+        this.catalog = catalog;
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.jitter = Math.max(0, Math.min(jitter, 1));
+        this.httpPath = httpPath;
+        this.httpRequest = httpPath == null ? null
+                : ("GET " + httpPath + " HTTP/1.0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.maxInFlight = Math.max(1, maxInFlight);
+
+        this.selector = Selector.open();
+        this.selectorThread = new Thread(this::select, "Health Prober Selector");
+        this.selectorThread.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Health Prober Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("health.probes.in.flight", inFlight, AtomicInteger::get).register(Metrics.globalRegistry);
+        Gauge.builder("health.instances", targets, Map::size).register(Metrics.globalRegistry);
+    }
+
+    /**
+     * @return Prober configured by env variables, null when probing is disabled.
+     */
+    public static HealthProber fromEnv(final Supplier<Map<String, ? extends Collection<ServiceInstance>>> catalog)
+            throws IOException {
+        long interval = Env.getLong("health_probe_interval_ms", 0);
+        if (interval <= 0) {
+            return null;
+        }
+        String path = Env.get("health_probe_http_path", null);
+        return new HealthProber(catalog,
+                interval,
+                Env.getLong("health_probe_timeout_ms", 2000),
+                Env.getInt("health_probe_jitter_pct", 20) / 100.0,
+                path == null || path.startsWith("/") ? path : "/" + path,
+                Env.getInt("health_probe_max_in_flight", 1024));
+    }
+
+    public HealthProber start() {
+        running = true;
+        selectorThread.start();
+        scheduler.scheduleWithFixedDelay(this::sync, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Probing instances every " + intervalMillis + "ms"
+                + (httpPath == null ? " by TCP connect" : " by GET " + httpPath));
+        return this;
+    }
+
+    /**
+     * @return Last probe result of given instance: true when healthy, false when not, null when not probed yet.
+     */
+    public Boolean isHealthy(final ServiceInstance instance) {
+        Target target = targets.get(instance.getId());
+        return target == null || !target.probes(instance) ? null : target.healthy;
+    }
+
+    /**
+     * @return Number of health changes so far, moves whenever an instance turns healthy or unhealthy.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public void catalogChanged(final CatalogEvent event) {
+        ServiceInstance instance = event.getInstance();
+        if (event.getType() == CatalogEvent.Type.REMOVED) {
+            targets.remove(instance.getId());
+        } else {
+            add(instance);
+        }
+    }
+
+    /**
+     * Probes the instances of the catalog, and only them.
+     */
+    private void sync() {
+        try {
+            Map<String, ? extends Collection<ServiceInstance>> services = catalog.get();
+            if (services == null) {
+                return;
+            }
+            Set<String> ids = new HashSet<>();
+            for (Collection<ServiceInstance> instances : services.values()) {
+                for (ServiceInstance instance : instances) {
+                    ids.add(instance.getId());
+                    add(instance);
+                }
+            }
+            targets.keySet().retainAll(ids);
+        } catch (RuntimeException e) {
+            // Keeps syncing, the next sync may succeed.
+            logger.error("Failed syncing probed instances", e);
+        }
+    }
+
+    /**
+     * Starts probing given instance, again from unknown when its address changed.
+     */
+    private void add(final ServiceInstance instance) {
+        Target current = targets.get(instance.getId());
+        if (current != null && current.probes(instance)) {
+            return;
+        }
+        Target target = new Target(instance);
+        if (current == null ? targets.putIfAbsent(instance.getId(), target) == null
+                : targets.replace(instance.getId(), current, target)) {
+            // Spread the first probes over an interval.
+            schedule(target, (long) (ThreadLocalRandom.current().nextDouble() * intervalMillis));
+        }
+    }
+
+    private void schedule(final Target target, final long delayMillis) {
+        if (!running) {
+            return;
+        }
+        try {
+            scheduler.schedule(() -> probe(target), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // Closed.
+        }
+    }
+
+    /**
+     * @return Interval give or take the jitter.
+     */
+    private long nextDelay() {
+        double spread = jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, (long) (intervalMillis * (1 + spread)));
+    }
+
+    /**
+     * Starts a probe of given target, completed on the selector thread.
+     */
+    private void probe(final Target target) {
+        if (targets.get(target.id) != target) {
+            return; // Removed, or replaced with a new address.
+        }
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            skipped.increment();
+            schedule(target, nextDelay());
+            return;
+        }
+
+        Probe probe = new Probe(target, System.currentTimeMillis() + timeoutMillis);
+        try {
+            probe.channel = SocketChannel.open();
+            probe.channel.configureBlocking(false);
+            if (probe.channel.connect(target.address()) && httpRequest == null) {
+                complete(probe, true);
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            complete(probe, false);
+            return;
+        }
+        pending.add(probe);
+        selector.wakeup();
+    }
+
+    private void select() {
+        try {
+            while (running) {
+                selector.select(Math.max(10, Math.min(timeoutMillis, 100)));
+                for (Probe probe = pending.poll(); probe != null; probe = pending.poll()) {
+                    register(probe);
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    handle(key);
+                }
+                selector.selectedKeys().clear();
+                expire();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                logger.error("Health probing stopped", e);
+            }
+        }
+    }
+
+    private void register(final Probe probe) {
+        try {
+            int interest = probe.channel.isConnected() ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT;
+            probe.key = probe.channel.register(selector, interest, probe);
+        } catch (IOException e) {
+            complete(probe, false);
+        }
+    }
+
+    private void handle(final SelectionKey key) {
+        Probe probe = (Probe) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                probe.channel.finishConnect();
+                if (httpRequest == null) {
+                    complete(probe, true);
+                } else {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            } else if (key.isWritable()) {
+                if (probe.buffer == null) {
+                    probe.buffer = ByteBuffer.wrap(httpRequest);
+                }
+                probe.channel.write(probe.buffer);
+                if (!probe.buffer.hasRemaining()) {
+                    probe.buffer = ByteBuffer.allocate(STATUS_LINE_LENGTH);
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                int read = probe.channel.read(probe.buffer);
+                if (!probe.buffer.hasRemaining()) {
+                    complete(probe, isSuccessStatus(probe.buffer));
+                } else if (read < 0) {
+                    complete(probe, false);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            complete(probe, false);
+        }
+    }
+
+    /**
+     * @return true for a 2xx or 3xx status line.
+     */
+    private static boolean isSuccessStatus(final ByteBuffer statusLine) {
+        String status = new String(statusLine.array(), 0, statusLine.position(), StandardCharsets.US_ASCII);
+        return status.startsWith("HTTP/") && (status.charAt(9) == '2' || status.charAt(9) == '3');
+    }
+
+    /**
+     * Fails the probes running longer than the timeout.
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            Probe probe = (Probe) key.attachment();
+            if (probe != null && probe.deadline < now) {
+                complete(probe, false);
+            }
+        }
+    }
+
+    private void complete(final Probe probe, final boolean result) {
+        if (probe.completed) {
+            return;
+        }
+        probe.completed = true;
+        if (probe.key != null) {
+            probe.key.cancel();
+        }
+        if (probe.channel != null) {
+            try {
+                probe.channel.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+        }
+        inFlight.decrementAndGet();
+        (result ? healthy : unhealthy).increment();
+
+        Target target = probe.target;
+        if (!Objects.equals(target.healthy, result)) {
+            target.healthy = result;
+            version.incrementAndGet();
+        }
+        schedule(target, nextDelay());
+    }
+
+    /**
+     * Stops probing, health stays as last probed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        scheduler.shutdownNow();
+        selector.wakeup();
+        try {
+            selectorThread.join(1000);
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("Failed closing probes", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An instance being probed, as of the address it was registered with.
+     */
+    private static final class Target {
+        private final String id;
+        private final String address;
+        private final int port;
+        private InetSocketAddress resolved;
+
+        // Written on the selector thread.
+        private volatile Boolean healthy;
+
+        private Target(final ServiceInstance instance) {
+            this.id = instance.getId();
+            this.address = instance.getAddress();
+            this.port = instance.getPort();
+        }
+
+        /**
+         * @return true if this target probes given instance as registered now.
+         */
+        private boolean probes(final ServiceInstance instance) {
+            return Objects.equals(address, instance.getAddress()) && port == instance.getPort();
+        }
+
+        /**
+         * @return The IP (last of the space separated host names and addresses), resolved once.
+         */
+        private InetSocketAddress address() {
+            if (resolved == null) {
+                String host = address == null ? "" : address.trim();
+                resolved = new InetSocketAddress(host.substring(host.lastIndexOf(' ') + 1), port);
+            }
+            return resolved;
+        }
+    }
+
+    private static final class Probe {
+        private final Target target;
+        private final long deadline;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer buffer;
+        private boolean completed;
+
+        private Probe(final Target target, final long deadline) {
+            this.target = target;
+            this.deadline = deadline;
+        }
+    }
+}
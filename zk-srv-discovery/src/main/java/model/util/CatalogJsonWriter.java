@@ -0,0 +1,166 @@
+package model.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Streams service instances as JSON, one instance at a time,
+ * so the response is never materialized on the heap.
+ * <p>
+ * Format of all services:
+ * {"zk":"...","version":"...","services":{"Worker_1":[{"name":...,"address":...},...],...}}
+ * When served while ZK is not available, "stale" holds the time of the instances in millis:
+ * {"zk":"...","version":"...","stale":1514764800000,"services":{...}}
+ * When instances are probed, each instance has "healthy": true or false (none until probed).
+ */
+public final class CatalogJsonWriter {
+
+    // Writer attribute holding the health lookup, see HealthProperty.
+    static final String HEALTH_ATTRIBUTE = "health";
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final ObjectWriter instanceWriter = mapper.writerFor(ServiceInstance.class);
+    private static final JsonFactory factory = mapper.getFactory();
+
+    private CatalogJsonWriter() {
+    }
+
+    /**
+     * Writes all services with their instances as a JSON object.
+     */
+    public static void writeServices(final OutputStream out,
+                                     final String zkConnectString,
+                                     final String version,
+                                     final Map<String, ? extends Collection<ServiceInstance>> services) throws IOException {
+        writeServices(out, zkConnectString, version, services, 0);
+    }
+
+    /**
+     * Writes all services with their instances as a JSON object.
+     *
+     * @param staleSince - time of the instances in millis when stale, 0 when live.
+     */
+    public static void writeServices(final OutputStream out,
+                                     final String zkConnectString,
+                                     final String version,
+                                     final Map<String, ? extends Collection<ServiceInstance>> services,
+                                     final long staleSince) throws IOException {
+        writeServices(out, zkConnectString, version, services, staleSince, null);
+    }
+
+    /**
+     * Writes a page of services with their instances as a JSON object.
+     *
+     * @param staleSince - time of the instances in millis when stale, 0 when live.
+     * @param next       - cursor of the next page, null when last.
+     */
+    public static void writeServices(final OutputStream out,
+                                     final String zkConnectString,
+                                     final String version,
+                                     final Map<String, ? extends Collection<ServiceInstance>> services,
+                                     final long staleSince,
+                                     final String next) throws IOException {
+        writeServices(out, zkConnectString, version, services, staleSince, next, null);
+    }
+
+    /**
+     * Writes a page of services with their instances as a JSON object.
+     *
+     * @param staleSince - time of the instances in millis when stale, 0 when live.
+     * @param next       - cursor of the next page, null when last.
+     * @param health     - health of an instance (null when not probed yet), null when not probing.
+     */
+    public static void writeServices(final OutputStream out,
+                                     final String zkConnectString,
+                                     final String version,
+                                     final Map<String, ? extends Collection<ServiceInstance>> services,
+                                     final long staleSince,
+                                     final String next,
+                                     final Function<ServiceInstance, Boolean> health) throws IOException {
+        ObjectWriter writer = instanceWriter(health);
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("zk", zkConnectString);
+            generator.writeStringField("version", version);
+            if (staleSince != 0) {
+                generator.writeNumberField("stale", staleSince);
+            }
+            if (next != null) {
+                generator.writeStringField("next", next);
+            }
+            generator.writeObjectFieldStart("services");
+            for (Map.Entry<String, ? extends Collection<ServiceInstance>> service : services.entrySet()) {
+                generator.writeFieldName(service.getKey());
+                writeArray(generator, writer, service.getValue());
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes instances as a JSON array.
+     */
+    public static void writeInstances(final OutputStream out,
+                                      final Collection<ServiceInstance> instances) throws IOException {
+        writeInstances(out, instances, null);
+    }
+
+    /**
+     * Writes instances as a JSON array.
+     *
+     * @param health - health of an instance (null when not probed yet), null when not probing.
+     */
+    public static void writeInstances(final OutputStream out,
+                                      final Collection<ServiceInstance> instances,
+                                      final Function<ServiceInstance, Boolean> health) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            writeArray(generator, instanceWriter(health), instances);
+        }
+    }
+
+    /**
+     * Renders a change of an instance, e.g.
+     * {"type":"added","index":12,"instance":{"name":...}}
+     */
+    public static byte[] eventBytes(final String type,
+                                    final long index,
+                                    final ServiceInstance instance) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", type);
+            generator.writeNumberField("index", index);
+            generator.writeFieldName("instance");
+            instanceWriter.writeValue(generator, instance);
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static ObjectWriter instanceWriter(final Function<ServiceInstance, Boolean> health) {
+        return health == null ? instanceWriter : instanceWriter.withAttribute(HEALTH_ATTRIBUTE, health);
+    }
+
+    private static void writeArray(final JsonGenerator generator,
+                                   final ObjectWriter writer,
+                                   final Collection<ServiceInstance> instances) throws IOException {
+        generator.writeStartArray();
+        for (ServiceInstance instance : instances) {
+            writer.writeValue(generator, instance);
+        }
+        generator.writeEndArray();
+    }
+}
@@ -0,0 +1,46 @@
+package model.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.ser.VirtualBeanPropertyWriter;
+import com.fasterxml.jackson.databind.util.Annotations;
+
+import java.util.function.Function;
+
+/**
+ * The "healthy" field of a service instance, looked up while writing.
+ * The lookup is passed as the CatalogJsonWriter.HEALTH_ATTRIBUTE attribute of the writer,
+ * the field is left out when there is no lookup or the health is not known.
+ */
+final class HealthProperty extends VirtualBeanPropertyWriter {
+
+    private static final long serialVersionUID = 1L;
+
+    public HealthProperty() {
+    }
+
+    private HealthProperty(final BeanPropertyDefinition definition,
+                           final Annotations annotations,
+                           final JavaType type) {
+        super(definition, annotations, type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object value(final Object bean, final JsonGenerator generator, final SerializerProvider provider) {
+        Object health = provider.getAttribute(CatalogJsonWriter.HEALTH_ATTRIBUTE);
+        return health == null ? null : ((Function<ServiceInstance, Boolean>) health).apply((ServiceInstance) bean);
+    }
+
+    @Override
+    public VirtualBeanPropertyWriter withConfig(final MapperConfig<?> config,
+                                                final AnnotatedClass declaringClass,
+                                                final BeanPropertyDefinition definition,
+                                                final JavaType type) {
+        return new HealthProperty(definition, declaringClass.getAnnotations(), type);
+    }
+}
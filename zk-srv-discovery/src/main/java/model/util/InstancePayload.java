@@ -0,0 +1,84 @@
+package model.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Payload of a registered service instance: version, description and free metadata.
+ * <p>
+ * Printed as "[version] [description]", the string payload registered before it existed.
+ */
+public final class InstancePayload {
+
+    private static final Pattern LEGACY_PAYLOAD = Pattern.compile("^\\[(.*?)] \\[(.*)]$", Pattern.DOTALL);
+
+    private final String version;
+    private final String description;
+    private final Map<String, String> metadata;
+
+    // toString() is the payload column, built once.
+    private final String text;
+
+    public InstancePayload(final String version, final String description) {
+        this(version, description, Collections.emptyMap());
+    }
+
+    public InstancePayload(final String version, final String description, final Map<String, String> metadata) {
+        this.version = version;
+        this.description = description;
+        this.metadata = metadata.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(metadata));
+        this.text = version == null ? description : "[" + version + "] [" + description + "]";
+    }
+
+    /**
+     * Reads a payload registered as a string, "[version] [description]" or any other text.
+     */
+    public static InstancePayload parse(final String payload) {
+        Matcher matcher = LEGACY_PAYLOAD.matcher(payload);
+        if (matcher.matches()) {
+            return new InstancePayload(matcher.group(1), matcher.group(2));
+        }
+        return new InstancePayload(null, payload);
+    }
+
+    /**
+     * @return Version, null when registered as plain text.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InstancePayload)) {
+            return false;
+        }
+        InstancePayload that = (InstancePayload) o;
+        return Objects.equals(text, that.text) && metadata.equals(that.metadata);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(text) + metadata.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
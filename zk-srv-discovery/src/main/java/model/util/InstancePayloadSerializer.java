@@ -0,0 +1,208 @@
+package model.util;
+
+import org.apache.curator.x.discovery.ServiceInstance;
+import org.apache.curator.x.discovery.ServiceType;
+import org.apache.curator.x.discovery.UriSpec;
+import org.apache.curator.x.discovery.details.InstanceSerializer;
+import org.apache.curator.x.discovery.details.JsonInstanceSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serializes service instances with an InstancePayload.
+ * <p>
+ * The binary encoding starts with MAGIC, followed by the instance fields written with DataOutput:
+ * name, id, address, port, sslPort, registrationTimeUTC, serviceType, uriSpec, enabled,
+ * then the payload version, description and metadata entries.
+ * Nullable fields are prefixed by a presence flag.
+ * <p>
+ * Anything else is read as the Curator JSON encoding, with a string payload ("[version] [description]")
+ * or an object payload, so instances registered before the binary encoding are still read.
+ */
+public final class InstancePayloadSerializer implements InstanceSerializer<InstancePayload> {
+
+    private static final byte[] MAGIC = {'Z', 'K', 'D', 1};
+
+    private static final ServiceType[] SERVICE_TYPES = ServiceType.values();
+
+    private final JsonInstanceSerializer<Object> json = new JsonInstanceSerializer<>(Object.class);
+    private final boolean binary;
+
+    private InstancePayloadSerializer(final boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * @return Serializer writing the compact binary encoding.
+     */
+    public static InstancePayloadSerializer binary() {
+        return new InstancePayloadSerializer(true);
+    }
+
+    /**
+     * @return Serializer writing JSON with a string payload, readable by older discovery servers.
+     * Metadata is not written.
+     */
+    public static InstancePayloadSerializer legacyJson() {
+        return new InstancePayloadSerializer(false);
+    }
+
+    /**
+     * @return Serializer chosen by the instance_encoding env variable, "json" (default) or "binary".
+     * Binary instances are only read by servers that know the encoding, so it is opt-in.
+     */
+    public static InstancePayloadSerializer fromEnv() {
+        return "binary".equalsIgnoreCase(Env.get("instance_encoding", "json")) ? binary() : legacyJson();
+    }
+
+    @Override
+    public byte[] serialize(final ServiceInstance<InstancePayload> instance) throws Exception {
+        if (!binary) {
+            return json.serialize(new ServiceInstance<>(instance.getName(), instance.getId(), instance.getAddress(),
+                    instance.getPort(), instance.getSslPort(), instance.getPayload() == null ? null : instance.getPayload().toString(),
+                    instance.getRegistrationTimeUTC(), instance.getServiceType(), instance.getUriSpec(), instance.isEnabled()));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        writeNullable(out, instance.getName());
+        writeNullable(out, instance.getId());
+        writeNullable(out, instance.getAddress());
+        writeNullable(out, instance.getPort());
+        writeNullable(out, instance.getSslPort());
+        out.writeLong(instance.getRegistrationTimeUTC());
+        out.writeByte(instance.getServiceType().ordinal());
+        writeNullable(out, template(instance.getUriSpec()));
+        out.writeBoolean(instance.isEnabled());
+
+        InstancePayload payload = instance.getPayload();
+        out.writeBoolean(payload != null);
+        if (payload != null) {
+            writeNullable(out, payload.getVersion());
+            writeNullable(out, payload.getDescription());
+            out.writeShort(payload.getMetadata().size());
+            for (Map.Entry<String, String> entry : payload.getMetadata().entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeNullable(out, entry.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ServiceInstance<InstancePayload> deserialize(final byte[] bytes) throws Exception {
+        if (!isBinary(bytes)) {
+            return fromJson(json.deserialize(bytes));
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, MAGIC.length, bytes.length - MAGIC.length));
+        String name = readString(in);
+        String id = readString(in);
+        String address = readString(in);
+        Integer port = readInteger(in);
+        Integer sslPort = readInteger(in);
+        long registrationTimeUTC = in.readLong();
+        ServiceType serviceType = SERVICE_TYPES[in.readUnsignedByte()];
+        String uriSpec = readString(in);
+        boolean enabled = in.readBoolean();
+
+        InstancePayload payload = null;
+        if (in.readBoolean()) {
+            String version = readString(in);
+            String description = readString(in);
+            int size = in.readUnsignedShort();
+            Map<String, String> metadata = size == 0 ? Collections.emptyMap() : new LinkedHashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                metadata.put(in.readUTF(), readString(in));
+            }
+            payload = new InstancePayload(version, description, metadata);
+        }
+
+        return new ServiceInstance<>(name, id, address, port, sslPort, payload, registrationTimeUTC, serviceType,
+                uriSpec == null ? null : new UriSpec(uriSpec), enabled);
+    }
+
+    private static boolean isBinary(final byte[] bytes) {
+        if (bytes.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServiceInstance<InstancePayload> fromJson(final ServiceInstance<Object> instance) {
+        Object raw = instance.getPayload();
+        InstancePayload payload;
+        if (raw == null) {
+            payload = null;
+        } else if (raw instanceof Map) {
+            Map<String, Object> fields = (Map<String, Object>) raw;
+            Map<String, String> metadata = new LinkedHashMap<>();
+            Object rawMetadata = fields.get("metadata");
+            if (rawMetadata instanceof Map) {
+                ((Map<String, Object>) rawMetadata).forEach((key, value) -> metadata.put(key, String.valueOf(value)));
+            }
+            payload = new InstancePayload((String) fields.get("version"), String.valueOf(fields.get("description")), metadata);
+        } else {
+            payload = InstancePayload.parse(raw.toString());
+        }
+
+        return new ServiceInstance<>(instance.getName(), instance.getId(), instance.getAddress(), instance.getPort(),
+                instance.getSslPort(), payload, instance.getRegistrationTimeUTC(), instance.getServiceType(),
+                instance.getUriSpec(), instance.isEnabled());
+    }
+
+    /**
+     * @return The spec as registered, with its {variables} unresolved.
+     */
+    private static String template(final UriSpec uriSpec) {
+        if (uriSpec == null) {
+            return null;
+        }
+        StringBuilder template = new StringBuilder();
+        for (UriSpec.Part part : uriSpec) {
+            if (part.isVariable()) {
+                template.append('{').append(part.getValue()).append('}');
+            } else {
+                template.append(part.getValue());
+            }
+        }
+        return template.toString();
+    }
+
+    private static void writeNullable(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void writeNullable(final DataOutputStream out, final Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static Integer readInteger(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+}
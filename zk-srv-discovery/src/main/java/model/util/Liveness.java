@@ -0,0 +1,45 @@
+package model.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Liveness records of instances registered in TTL mode.
+ * <p>
+ * Kept in a separate tree next to the base path, base-liveness/{ServiceName}/{id},
+ * so heartbeats do not touch the instance znodes nor the catalog watching them.
+ * The data is the time of the last heartbeat and the TTL, both in millis.
+ * <p>
+ * The time is the registrant's clock, only informative: readers count the TTL from when they
+ * see the record written, on their own clock, so clock skew between hosts does not matter.
+ */
+public final class Liveness {
+
+    private static final String SUFFIX = "-liveness";
+    private static final int SIZE = 2 * Long.BYTES;
+
+    private Liveness() {
+    }
+
+    /**
+     * @return Root of the liveness tree of given base path.
+     */
+    public static String path(final String basePath) {
+        return basePath + SUFFIX;
+    }
+
+    public static byte[] encode(final long timestamp, final long ttlMillis) {
+        return ByteBuffer.allocate(SIZE).putLong(timestamp).putLong(ttlMillis).array();
+    }
+
+    /**
+     * @param seenAt - when the record was seen written, on the reader's clock.
+     * @return Time after which the instance is stale on the reader's clock, Long.MAX_VALUE if the record can't be read.
+     */
+    public static long expiresAt(final byte[] data, final long seenAt) {
+        if (data == null || data.length < SIZE) {
+            return Long.MAX_VALUE;
+        }
+        long ttlMillis = ByteBuffer.wrap(data, Long.BYTES, Long.BYTES).getLong();
+        return ttlMillis < 0 || ttlMillis > Long.MAX_VALUE - seenAt ? Long.MAX_VALUE : seenAt + ttlMillis;
+    }
+}
@@ -1,12 +1,20 @@
 package model.util;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonAppend;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * Simple Service Instance POJO.
+ * Written with a "healthy" field when probed (see HealthProperty).
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonAppend(props = @JsonAppend.Prop(value = HealthProperty.class, name = "healthy",
+        include = JsonInclude.Include.NON_NULL))
 public final class ServiceInstance {
 
     @JsonProperty("name")
@@ -21,6 +29,18 @@ public final class ServiceInstance {
     private final String date;
     @JsonProperty("id")
     private final String id;
+    @JsonProperty("registrationTime")
+    private final long registrationTime;
+    @JsonProperty("version")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String version;
+    @JsonProperty("metadata")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private final Map<String, String> metadata;
+
+    // Pre-formatted table cells, built once per instance.
+    private final String hostColumn;
+    private final String versionColumn;
 
     public ServiceInstance(final String serviceName,
                            final String address,
@@ -28,12 +48,90 @@ public final class ServiceInstance {
                            final String payload,
                            final String date,
                            final String id) {
+        this(serviceName, address, port, payload, date, id, 0, null, Collections.emptyMap());
+    }
+
+    /**
+     * @param registrationTime - in millis.
+     * @param version          - version from the payload, null if none.
+     * @param metadata         - metadata from the payload.
+     */
+    public ServiceInstance(final String serviceName,
+                           final String address,
+                           final int port,
+                           final String payload,
+                           final String date,
+                           final String id,
+                           final long registrationTime,
+                           final String version,
+                           final Map<String, String> metadata) {
         this.serviceName = serviceName;
         this.address = address;
         this.port = port;
         this.payload = payload;
         this.date = date;
         this.id = id;
+        this.registrationTime = registrationTime;
+        this.version = version;
+        this.metadata = metadata == null ? Collections.emptyMap() : metadata;
+        this.hostColumn = address + " " + port;
+        this.versionColumn = payload + " [" + id + "]";
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return Registration time in millis, 0 if unknown.
+     */
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    /**
+     * @return Version from the payload, null if none.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return Host cell of the table: address and port.
+     */
+    String hostColumn() {
+        return hostColumn;
+    }
+
+    /**
+     * @return Version cell of the table: payload and zk id.
+     */
+    String versionColumn() {
+        return versionColumn;
     }
 
     @Override
@@ -49,26 +147,6 @@ public final class ServiceInstance {
     }
 
     public String toTableRow() {
-        TableBuilder tb = new TableBuilder();
-        final String S = "|";
-
-        String dateCol = String.format("%-21s",date);
-        String serviceCol = String.format("%-32s",serviceName);
-
-        String hostInfo = address + " " + Integer.toString(port);
-        String hostCol = String.format("%-50s", hostInfo);
-
-        String version = payload + " " + "[" + id + "]";
-        String versionCol = String.format("%-80s", version);
-
-
-        tb.addRow(
-                S, dateCol,
-                S, serviceCol,
-                S, hostCol,
-                S, version, S
-        );
-
-        return tb.toString();
+        return TableRenderer.renderRow(this);
     }
 }
@@ -0,0 +1,155 @@
+package model.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical calls: while a call for a key is in flight, callers of the same key
+ * share its result instead of making their own call.
+ * <p>
+ * Waiting is bounded: a call in flight for longer than maxWait is not joined anymore, the next caller
+ * makes a new one, so a stuck call does not hold every caller of its key. Blocked callers wait at most
+ * what is left of maxWait, then make the call themselves.
+ * A completed call is forgotten, callers after it get a fresh result.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final long maxWaitNanos;
+    private final Counter leaders;
+    private final Counter shared;
+    private final Counter timedOut;
+
+    /**
+     * @param name - tags the singleflight.calls counters.
+     */
+    public SingleFlight(final String name, final long maxWaitMillis) {
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.leaders = Metrics.counter("singleflight.calls", "name", name, "role", "leader");
+        this.shared = Metrics.counter("singleflight.calls", "name", name, "role", "shared");
+        this.timedOut = Metrics.counter("singleflight.calls", "name", name, "role", "timeout");
+    }
+
+    /**
+     * Makes given asynchronous call, unless one is in flight for given key.
+     *
+     * @return Result of the call in flight, or of the call made.
+     */
+    public CompletableFuture<V> execute(final K key, final Supplier<CompletableFuture<V>> call) {
+        Flight<V> flight = new Flight<>(System.nanoTime());
+        Flight<V> current = join(key, flight);
+        if (current != flight) {
+            shared.increment();
+            return current.future;
+        }
+
+        leaders.increment();
+        CompletableFuture<V> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((value, e) -> {
+            flights.remove(key, flight);
+            if (e != null) {
+                flight.future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            } else {
+                flight.future.complete(value);
+            }
+        });
+        return flight.future;
+    }
+
+    /**
+     * Makes given call on this thread, unless one is in flight for given key.
+     *
+     * @return Result of the call in flight, or of the call made.
+     */
+    public V call(final K key, final Supplier<V> call) {
+        Flight<V> flight = new Flight<>(System.nanoTime());
+        Flight<V> current = join(key, flight);
+        if (current != flight) {
+            shared.increment();
+            return await(current, call);
+        }
+
+        leaders.increment();
+        try {
+            V value = call.get();
+            flights.remove(key, flight);
+            flight.future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of calls in flight.
+     */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    /**
+     * @return The flight to join, or given flight when it is to be made.
+     */
+    private Flight<V> join(final K key, final Flight<V> flight) {
+        while (true) {
+            Flight<V> current = flights.putIfAbsent(key, flight);
+            if (current == null) {
+                return flight;
+            }
+            if (flight.started - current.started < maxWaitNanos) {
+                return current;
+            }
+            // Stuck for too long, taken over by a new call.
+            if (flights.replace(key, current, flight)) {
+                return flight;
+            }
+        }
+    }
+
+    private V await(final Flight<V> flight, final Supplier<V> call) {
+        long remaining = flight.started + maxWaitNanos - System.nanoTime();
+        try {
+            return flight.future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            return call.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+
+    private static final class Flight<V> {
+        private final long started;
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+
+        private Flight(final long started) {
+            this.started = started;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package model.util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * Renders service instances as the fixed-width text table of zk-srv-discovery.
+ * <p>
+ * Cells are appended straight into the target StringBuilder and padded in place,
+ * the header and separator line are built once.
+ * <p>
+ * Row format:
+ * "| " date(21) " | " serviceName(32) " | " address port(50) " | " payload [id] " | "
+ * When instances are probed, a health cell follows: "healthy", "unhealthy" or "unknown" (not probed yet),
+ * padded to 9 then " | ".
+ */
+public final class TableRenderer {
+
+    private static final int DATE_WIDTH = 21;
+    private static final int SERVICE_NAME_WIDTH = 32;
+    private static final int HOST_WIDTH = 50;
+    private static final int HEALTH_WIDTH = 9;
+
+    // Typical row length, used for sizing builders.
+    private static final int ROW_ESTIMATE = 192;
+
+    // Reused builders larger than this are dropped instead of being kept per thread.
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final String COLUMNS = buildColumns(false);
+    private static final String HEALTH_COLUMNS = buildColumns(true);
+
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static final ThreadLocal<StringBuilder> builders =
+            ThreadLocal.withInitial(() -> new StringBuilder(ROW_ESTIMATE * 16));
+
+    private TableRenderer() {
+    }
+
+    /**
+     * Renders the full table: connection info, column header, separator line
+     * and a row for every instance.
+     */
+    public static String renderTable(final String zkConnectString,
+                                     final String version,
+                                     final Collection<? extends Collection<ServiceInstance>> collections) {
+        return renderTable(zkConnectString, version, collections, null);
+    }
+
+    /**
+     * Renders the full table, with a health column when given the health of instances.
+     *
+     * @param health - health of an instance (null when not probed yet), null when not probing.
+     */
+    public static String renderTable(final String zkConnectString,
+                                     final String version,
+                                     final Collection<? extends Collection<ServiceInstance>> collections,
+                                     final Function<ServiceInstance, Boolean> health) {
+        StringBuilder table = builder();
+
+        table.append("Connected to ZK=").append(zkConnectString).append('\n')
+                .append("version=").append(version).append('\n')
+                .append('\n')
+                .append(health == null ? COLUMNS : HEALTH_COLUMNS);
+
+        for (Collection<ServiceInstance> collection : collections) {
+            appendRows(table, collection, health);
+        }
+
+        return release(table);
+    }
+
+    /**
+     * Renders the line marking a table of instances known at given time, while ZK is not available.
+     */
+    public static String renderStaleMarker(final long since) {
+        return "STALE: ZK not available, instances as of " + DATE_FORMATTER.format(Instant.ofEpochMilli(since)) + "\n";
+    }
+
+    /**
+     * Renders a row per instance, each row ends with a new line.
+     */
+    public static String renderRows(final Collection<ServiceInstance> collection) {
+        return renderRows(collection, null);
+    }
+
+    /**
+     * Renders a row per instance, with a health cell when given the health of instances.
+     *
+     * @param health - health of an instance (null when not probed yet), null when not probing.
+     */
+    public static String renderRows(final Collection<ServiceInstance> collection,
+                                    final Function<ServiceInstance, Boolean> health) {
+        StringBuilder table = builder();
+        appendRows(table, collection, health);
+        return release(table);
+    }
+
+    /**
+     * Renders a single row, without new line.
+     */
+    public static String renderRow(final ServiceInstance instance) {
+        StringBuilder row = new StringBuilder(ROW_ESTIMATE);
+        appendRow(row, instance);
+        return row.toString();
+    }
+
+    public static void appendRows(final StringBuilder table, final Collection<ServiceInstance> collection) {
+        appendRows(table, collection, null);
+    }
+
+    public static void appendRows(final StringBuilder table,
+                                  final Collection<ServiceInstance> collection,
+                                  final Function<ServiceInstance, Boolean> health) {
+        for (ServiceInstance instance : collection) {
+            appendRow(table, instance);
+            if (health != null) {
+                appendHealth(table, health.apply(instance));
+            }
+            table.append('\n');
+        }
+    }
+
+    public static void appendRow(final StringBuilder row, final ServiceInstance instance) {
+        row.append("| ");
+        int start = row.length();
+        row.append(instance.getDate());
+        pad(row, start + DATE_WIDTH);
+
+        row.append(" | ");
+        start = row.length();
+        row.append(instance.getServiceName());
+        pad(row, start + SERVICE_NAME_WIDTH);
+
+        row.append(" | ");
+        start = row.length();
+        row.append(instance.hostColumn());
+        pad(row, start + HOST_WIDTH);
+
+        row.append(" | ").append(instance.versionColumn()).append(" | ");
+    }
+
+    private static void appendHealth(final StringBuilder row, final Boolean healthy) {
+        int start = row.length();
+        row.append(healthy == null ? "unknown" : healthy ? "healthy" : "unhealthy");
+        pad(row, start + HEALTH_WIDTH);
+        row.append(" | ");
+    }
+
+    private static void pad(final StringBuilder sb, final int length) {
+        for (int i = sb.length(); i < length; i++) {
+            sb.append(' ');
+        }
+    }
+
+    private static StringBuilder builder() {
+        StringBuilder sb = builders.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static String release(final StringBuilder sb) {
+        String result = sb.toString();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            builders.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Column header and the separating line after it.
+     */
+    private static String buildColumns(final boolean health) {
+        StringBuilder sb = new StringBuilder(512);
+
+        sb.append("| ");
+        appendPadded(sb, "Date", DATE_WIDTH + 1);
+        sb.append("| ");
+        appendPadded(sb, "ServiceName", SERVICE_NAME_WIDTH + 1);
+        sb.append("| ");
+        appendPadded(sb, "Host: Name,IP,Port", HOST_WIDTH + 1);
+        sb.append("| ");
+        appendPadded(sb, "Version,MetaData,ZK-ID", 81);
+        if (health) {
+            sb.append("| ");
+            appendPadded(sb, "Health", HEALTH_WIDTH + 1);
+        }
+        sb.append('|').append('\n');
+
+        sb.append('|');
+        appendSeparator(sb, DATE_WIDTH + 2);
+        appendSeparator(sb, SERVICE_NAME_WIDTH + 2);
+        appendSeparator(sb, HOST_WIDTH + 2);
+        appendSeparator(sb, 82);
+        if (health) {
+            appendSeparator(sb, HEALTH_WIDTH + 2);
+        }
+        sb.append('\n');
+
+        return sb.toString();
+    }
+
+    private static void appendPadded(final StringBuilder sb, final String value, final int width) {
+        int start = sb.length();
+        sb.append(value);
+        pad(sb, start + width);
+    }
+
+    private static void appendSeparator(final StringBuilder sb, final int underscores) {
+        for (int i = 0; i < underscores; i++) {
+            sb.append('_');
+        }
+        sb.append('|');
+    }
+}
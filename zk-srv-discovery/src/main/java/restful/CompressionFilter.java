@@ -0,0 +1,84 @@
+package restful;
+
+import model.util.Env;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses responses with gzip or deflate, as negotiated by the Accept-Encoding header.
+ * <p>
+ * Responses already carrying a Content-Encoding (pre-encoded, see EncodedResponses) are written as is,
+ * event streams are never compressed, so events are not held back by the compressor.
+ * Text bodies below compression_min_size bytes (default 512) are not worth compressing,
+ * unless tagged: entity tags depend on the negotiated encoding (see Service), so tagged bodies always get it.
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionFilter implements ContainerResponseFilter, WriterInterceptor {
+
+    private static final String ENCODING_PROPERTY = CompressionFilter.class.getName() + ".encoding";
+
+    private static final int MIN_SIZE = Env.getInt("compression_min_size", 512);
+
+    @Override
+    public void filter(final ContainerRequestContext request, final ContainerResponseContext response) {
+        boolean notModified = response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode();
+        if (!response.hasEntity() && !notModified
+                || response.getEntity() instanceof ChunkedOutput
+                || isEventStream(response.getMediaType())) {
+            return;
+        }
+
+        // Also on 304, caches update the stored response with it.
+        List<String> vary = response.getStringHeaders().get(HttpHeaders.VARY);
+        if (vary == null || !vary.contains(HttpHeaders.ACCEPT_ENCODING)) {
+            response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (!response.hasEntity() || response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            return;
+        }
+        if (response.getEntity() instanceof String
+                && ((String) response.getEntity()).length() < MIN_SIZE
+                && !response.getHeaders().containsKey(HttpHeaders.ETAG)) {
+            return;
+        }
+
+        ContentEncoding encoding = ContentEncoding.negotiate(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != ContentEncoding.IDENTITY) {
+            response.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding.getName());
+            request.setProperty(ENCODING_PROPERTY, encoding);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(final WriterInterceptorContext context) throws IOException {
+        ContentEncoding encoding = (ContentEncoding) context.getProperty(ENCODING_PROPERTY);
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        DeflaterOutputStream encoded = encoding.encode(context.getOutputStream());
+        context.setOutputStream(encoded);
+        context.proceed();
+        encoded.finish();
+    }
+
+    private static boolean isEventStream(final MediaType type) {
+        return type != null && "text".equals(type.getType()) && "event-stream".equals(type.getSubtype());
+    }
+}
@@ -0,0 +1,114 @@
+package restful;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content encodings of responses, negotiated from the Accept-Encoding header.
+ */
+enum ContentEncoding {
+
+    IDENTITY(null),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String name;
+
+    ContentEncoding(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return Value of the Content-Encoding header, null for identity.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return Stream encoding into given stream, to be finished once written.
+     */
+    DeflaterOutputStream encode(final OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, 8192);
+            case DEFLATE:
+                return new DeflaterOutputStream(out);
+            default:
+                throw new IllegalStateException("Nothing to encode with " + this);
+        }
+    }
+
+    /**
+     * @return Given bytes in this encoding.
+     */
+    byte[] encode(final byte[] bytes) {
+        if (this == IDENTITY) {
+            return bytes;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        try (DeflaterOutputStream encoded = encode(out)) {
+            encoded.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Picks the encoding preferred by given Accept-Encoding header, gzip over deflate on equal preference.
+     * Encodings with q=0 are refused, * stands for any encoding not listed.
+     *
+     * @return Identity when no header, or nothing better is accepted.
+     */
+    static ContentEncoding negotiate(final String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            float quality = quality(parts);
+            if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+                gzip = Math.max(gzip, quality);
+            } else if ("deflate".equals(coding)) {
+                deflate = Math.max(deflate, quality);
+            } else if ("*".equals(coding)) {
+                any = quality;
+            }
+        }
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : IDENTITY;
+    }
+
+    /**
+     * @return The q parameter of an Accept-Encoding element, 1 when missing, 0 when invalid.
+     */
+    private static float quality(final String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -1,20 +1,42 @@
 package restful;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import model.catalog.Catalog;
+import model.catalog.CatalogListener;
+import model.catalog.CatalogQuery;
+import model.catalog.CatalogSnapshot;
+import model.catalog.FanOutFetcher;
+import model.catalog.FetchResult;
+import model.catalog.InstanceConverter;
+import model.catalog.SnapshotFile;
+import model.health.HealthProber;
+import model.util.Env;
+import model.util.Liveness;
 import model.util.ServiceInstance;
+import model.util.SingleFlight;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.retry.RetryForever;
 import org.apache.curator.utils.CloseableUtils;
-import org.apache.curator.x.discovery.ServiceDiscovery;
-import org.apache.curator.x.discovery.ServiceDiscoveryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * ZK Discovery service.
@@ -22,37 +44,183 @@ import java.util.Collection;
  * Uses Curator-X-Discovery API to get information about registered services.
  * The main purpose of this class is to get information from zk
  * and convert Objects from zk to ServiceInstance
+ * <p>
+ * A single instance is shared by the whole application (owned by Starter),
+ * so the ZK session is opened once and the connection state is tracked
+ * by a listener instead of being checked per request.
+ * Reads are served from a watch-driven Catalog once it is initialized,
+ * before that they fan out to zk in parallel (FanOutFetcher).
+ * Instances registered in TTL mode are left out of the catalog while their heartbeat is stale.
+ * <p>
+ * Cold reads are configured by env vars:
+ * fetch_parallelism (max outstanding zk operations per read, default 64),
+ * fetch_deadline_ms (per read deadline, default 5000).
+ * Suspended requests (blocking queries) are resumed on async_threads threads (default 4).
+ * <p>
+ * The catalog is saved every snapshot_interval_ms (default 30000) to snapshot_file
+ * (default zk-srv-discovery.snapshot in the temp dir, "none" to disable).
+ * The saved snapshot is served, marked stale, on start until the catalog is loaded,
+ * and the catalog is served stale while zk is not available.
  */
-class Discovery {
-    private CuratorFramework client;
-    private ServiceDiscovery<Object> serviceDiscovery;
+public class Discovery implements Closeable {
+
+    static final String STATUS_CONNECTED = "IMOK";
+    static final String STATUS_NOT_CONNECTED = "NO CONNECTION";
+
+    // Time to wait for the first connection on start.
+
+    private static final Logger logger = LoggerFactory.getLogger(Discovery.class);
+
+    // Prefix of ids derived from catalog versions (entity tags, event ids), catalog versions restart with the process.
+    static final String EPOCH = Long.toHexString(System.currentTimeMillis());
+
+    // Reads by source: catalog (cache hit), saved snapshot or zk (cache miss).
+    private static final Counter catalogQueries = Metrics.counter("discovery.queries", "source", "catalog");
+    private static final Counter snapshotQueries = Metrics.counter("discovery.queries", "source", "snapshot");
+    private static final Counter zkQueries = Metrics.counter("discovery.queries", "source", "zk");
+    private static final Timer fetchAllTimer = fetchTimer("all");
+    private static final Timer fetchServiceTimer = fetchTimer("service");
+
+    private final String connectString;
+    private final CuratorFramework client;
+    private final Catalog catalog;
+    private final FanOutFetcher fetcher;
+    private final ExecutorService asyncExecutor;
+    private final SnapshotFile snapshotFile;
+    private final ScheduledExecutorService snapshotWriter;
+    private final HealthProber prober;
+    private final PageCursors pageCursors =
+            new PageCursors(Env.getInt("page_retained", 32), Env.getLong("page_retention_ms", 60000));
+    private final EncodedResponses encodedResponses = new EncodedResponses(
+            Env.getInt("encoded_cache_entries", 256), Boolean.parseBoolean(Env.get("encoded_cache_direct", "false")),
+            Env.getLong("single_flight_wait_ms", 10000));
+
+    // Reads from zk in flight, shared by concurrent identical queries until the catalog is initialized.
+    private final SingleFlight<String, FetchResult> fetches =
+            new SingleFlight<>("fetch", Env.getLong("single_flight_wait_ms", 10000));
+
+    // Last connection state reported by Curator.
+    private volatile ConnectionState connectionState = ConnectionState.LOST;
+    private volatile long disconnectedSince = System.currentTimeMillis();
+
+    // Snapshot loaded from file on start, until the catalog is initialized.
+    private volatile FetchResult savedSnapshot;
+    private long savedVersion = -1;
+
+    public Discovery(final String path, final String zk_address) {
+        this.connectString = zk_address;
 
-    Discovery(final String path, final String zk_address) {
         // Connect as client to zk by using CuratorFramework.
         this.client = CuratorFrameworkFactory.newClient(zk_address, new RetryForever(5));
+        this.client.getConnectionStateListenable().addListener((c, newState) -> {
+            if (connectionState.isConnected() && !newState.isConnected()) {
+                disconnectedSince = System.currentTimeMillis();
+            }
+            connectionState = newState;
+            Metrics.counter("zk.connection.state", "client", "discovery", "state", newState.name()).increment();
+        });
 
-        // Start Service-Discovery on given path by using ServiceDiscovery in CuratorFramework
-        this.serviceDiscovery = ServiceDiscoveryBuilder.builder(Object.class)
-                .client(client)
-                .basePath(path)
-                .build();
-    }
+        // Service instances under given path, from the watch-driven catalog or straight from zk.
+        // Both share the conversions, so an instance is converted once per zk change.
+        InstanceConverter converter = new InstanceConverter();
+        this.catalog = new Catalog(client, path, Liveness.path(path), converter);
+        Gauge.builder("catalog.instances", catalog, c -> c.getSnapshot().size()).register(Metrics.globalRegistry);
+        Gauge.builder("catalog.services", catalog, c -> c.getSnapshot().getServices().size()).register(Metrics.globalRegistry);
+        Gauge.builder("catalog.version", catalog, c -> c.getSnapshot().getVersion()).register(Metrics.globalRegistry);
+        Gauge.builder("zk.connected", this, d -> d.isConnected() ? 1 : 0).register(Metrics.globalRegistry);
 
-    String getStatus() throws Exception {
+        // Health of the catalog instances, probed when enabled (health_probe_interval_ms).
+        this.prober = healthProber(catalog);
+        if (prober != null) {
+            catalog.addListener(prober);
+        }
+
+        this.fetcher = new FanOutFetcher(client, path,
+                Env.getInt("fetch_parallelism", 64),
+                Env.getLong("fetch_deadline_ms", 5000),
+                converter);
 
-        final String STATUS_CONNECTED = "IMOK";
-        final String STATUS_NOT_CONNECTED = "NO CONNECTION";
+        AtomicInteger threads = new AtomicInteger();
+        this.asyncExecutor = Executors.newFixedThreadPool(Env.getInt("async_threads", 4), r -> {
+            Thread thread = new Thread(r, "Discovery Async-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        client.getZookeeperClient().blockUntilConnectedOrTimedOut();
+        String snapshotPath = Env.get("snapshot_file",
+                Paths.get(System.getProperty("java.io.tmpdir"), "zk-srv-discovery.snapshot").toString());
+        if ("none".equals(snapshotPath)) {
+            this.snapshotFile = null;
+            this.snapshotWriter = null;
+        } else {
+            this.snapshotFile = new SnapshotFile(Paths.get(snapshotPath), zk_address + path);
+            this.snapshotWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Discovery Snapshot Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
 
-        return client.getZookeeperClient().isConnected() ? STATUS_CONNECTED : STATUS_NOT_CONNECTED;
+    String getConnectString() {
+        return connectString;
+    }
 
+    boolean isConnected() {
+        return connectionState.isConnected();
+    }
 
+    /**
+     * @return Connection status with zk, as last reported by Curator.
+     */
+    String getStatus() {
+        return isConnected() ? STATUS_CONNECTED : STATUS_NOT_CONNECTED;
     }
 
-    void start() throws Exception {
+    /**
+     * Opens the ZK session without waiting for it: requests are served from the saved snapshot
+     * (or answered as not connected, see /health) until connected.
+     */
+    public void start() throws Exception {
+        if (snapshotFile != null) {
+            savedSnapshot = snapshotFile.read();
+            long interval = Env.getLong("snapshot_interval_ms", 30000);
+            snapshotWriter.scheduleWithFixedDelay(this::saveSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+        }
         client.start();
-        serviceDiscovery.start();
+        catalog.start();
+        if (prober != null) {
+            prober.start();
+        }
+    }
+
+    private static HealthProber healthProber(final Catalog catalog) {
+        try {
+            return HealthProber.fromEnv(() -> catalog.isInitialized() ? catalog.getSnapshot().getServices() : null);
+        } catch (IOException e) {
+            logger.error("Failed starting health probes, instances are not probed", e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the catalog, unless not initialized or unchanged since last saved.
+     */
+    private synchronized void saveSnapshot() {
+        if (!catalog.isInitialized()) {
+            return;
+        }
+        savedSnapshot = null;
+        CatalogSnapshot snapshot = catalog.getSnapshot();
+        if (snapshot.getVersion() == savedVersion) {
+            return;
+        }
+        try {
+            snapshotFile.write(snapshot);
+            savedVersion = snapshot.getVersion();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed saving snapshot " + snapshotFile.getPath(), e);
+        }
     }
 
     private static void closeAllQuietly(Closeable... closeable) {
@@ -61,54 +229,167 @@ class Discovery {
         }
     }
 
-    void close() {
-        closeAllQuietly(client, serviceDiscovery);
+    @Override
+    public void close() {
+        asyncExecutor.shutdown();
+        if (snapshotFile != null) {
+            snapshotWriter.shutdown();
+            saveSnapshot();
+        }
+        closeAllQuietly(prober, catalog, client);
+    }
+
+    /**
+     * @return Executor for resuming suspended requests, off the catalog event thread.
+     */
+    Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * @return Results being paged through by /getAll.
+     */
+    PageCursors getPageCursors() {
+        return pageCursors;
+    }
+
+    /**
+     * @return Rendered and compressed responses of the current catalog version.
+     */
+    EncodedResponses getEncodedResponses() {
+        return encodedResponses;
+    }
+
+    /**
+     * @return Health of an instance as last probed (null when not probed yet), null when not probing.
+     */
+    Function<ServiceInstance, Boolean> getHealth() {
+        return prober == null ? null : prober::isHealthy;
+    }
+
+    /**
+     * @return Number of health changes so far, 0 when not probing.
+     */
+    long getHealthVersion() {
+        return prober == null ? 0 : prober.getVersion();
+    }
+
+    /**
+     * @return Version of the catalog, 0 until initialized.
+     */
+    long getCatalogVersion() {
+        return catalog.getSnapshot().getVersion();
+    }
+
+    void addListener(final CatalogListener listener) {
+        catalog.addListener(listener);
+    }
+
+    /**
+     * Waits for the index of given service to move past given index.
+     * Cancelling the returned future stops waiting.
+     */
+    CompletableFuture<CatalogSnapshot> awaitChange(final String serviceName, final long index) {
+        return catalog.awaitChange(serviceName, index);
     }
 
     /**
      * Collects all instances registered to given path.
+     * Served from the catalog when initialized, then from the saved snapshot, otherwise read from zk.
      *
-     * @return Collection of service instances as POJO.
-     */
-    Collection<Collection<ServiceInstance>> queryForInstances() throws Exception {
-        Collection<Collection<ServiceInstance>> collection = new ArrayList<>();
-        serviceDiscovery.queryForNames().forEach(serviceName -> {
-            try {
-                collection.add(queryForInstances(serviceName));
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
-        return collection;
+     * @return Service instances as POJO, possibly partial if zk did not answer in time, or stale.
+     */
+    FetchResult queryForInstances() throws Exception {
+        return queryForInstancesAsync().get();
     }
 
     /**
      * Collects all instances registered with given serviceName.
-     * Converts services from zk (Objects) to readable ServiceInstance
+     * Served from the catalog when initialized, then from the saved snapshot, otherwise read from zk.
      *
-     * @return Collection of all Services under the same serviceName.
+     * @return Service instances as POJO, possibly partial if zk did not answer in time, or stale.
      */
-    Collection<ServiceInstance> queryForInstances(final String serviceName) throws Exception {
+    FetchResult queryForInstances(final String serviceName) throws Exception {
+        return queryForInstancesAsync(serviceName).get();
+    }
 
-        Collection<ServiceInstance> collection = new ArrayList<>();
+    /**
+     * Like queryForInstances, without blocking the calling thread on zk.
+     * Reads from zk complete on the Curator event thread, dependent stages must not block.
+     * Concurrent reads from zk are made once and shared (see SingleFlight).
+     */
+    CompletableFuture<FetchResult> queryForInstancesAsync() {
+        FetchResult known = queryKnown();
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        return fetches.execute("all", () -> {
+            Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+            return fetcher.fetchAll().whenComplete((result, e) -> sample.stop(fetchAllTimer));
+        });
+    }
 
-        // For every ServiceInstance<Object>, convert it to ServiceInstance and add it to collection.
-        // Parallel operation.
-        serviceDiscovery.queryForInstances(serviceName).forEach(instance -> {
+    /**
+     * Like queryForInstances(serviceName), without blocking the calling thread on zk.
+     * Reads from zk complete on the Curator event thread, dependent stages must not block.
+     * Concurrent reads of the same service from zk are made once and shared (see SingleFlight).
+     */
+    CompletableFuture<FetchResult> queryForInstancesAsync(final String serviceName) {
+        FetchResult known = queryKnown();
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        return fetches.execute("service/" + serviceName, () -> {
+            Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+            return fetcher.fetch(serviceName).whenComplete((result, e) -> sample.stop(fetchServiceTimer));
+        });
+    }
 
-            LocalDateTime date =
-                    LocalDateTime.ofInstant(Instant.ofEpochMilli(instance.getRegistrationTimeUTC()), ZoneId.systemDefault());
+    /**
+     * Filters the instances of given result: with the catalog indexes when the result is from the catalog,
+     * otherwise by scanning it.
+     *
+     * @return Matching instances, sorted by service name and id.
+     */
+    List<ServiceInstance> query(final FetchResult result, final CatalogQuery query) {
+        return result.isCached() ? catalog.query(query) : query.filter(result.getSnapshot());
+    }
 
-            ServiceInstance pojo = new ServiceInstance(
-                    instance.getName(),
-                    instance.getAddress(),
-                    instance.getPort(),
-                    instance.getPayload().toString(),
-                    date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss")),
-                    instance.getId()
-            );
-            collection.add(pojo);
-        });
-        return collection;
+    /**
+     * @return The catalog when initialized, then the saved snapshot, null when zk has to be read.
+     */
+    private FetchResult queryKnown() {
+        if (catalog.isInitialized()) {
+            catalogQueries.increment();
+            return FetchResult.of(catalog.getSnapshot());
+        }
+        FetchResult saved = savedSnapshot;
+        if (saved != null) {
+            snapshotQueries.increment();
+            return saved;
+        }
+        zkQueries.increment();
+        return null;
+    }
+
+    private static Timer fetchTimer(final String scope) {
+        return Timer.builder("discovery.zk.fetch")
+                .tag("scope", scope)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Last known instances while zk is not available:
+     * the catalog as of the disconnection, or the saved snapshot.
+     *
+     * @return Stale result, null if nothing is known.
+     */
+    FetchResult queryStale() {
+        snapshotQueries.increment();
+        if (catalog.isInitialized()) {
+            return FetchResult.stale(catalog.getSnapshot(), disconnectedSince);
+        }
+        return savedSnapshot;
     }
 }
@@ -0,0 +1,141 @@
+package restful;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import model.util.SingleFlight;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Rendered responses of the catalog, kept per representation and content encoding until the catalog moves
+ * (or the health of its instances, when probed), so repeated reads of an unchanged catalog are a buffer write:
+ * nothing rendered, nothing compressed.
+ * <p>
+ * Only bodies of the latest catalog and health versions are kept, at most encoded_cache_entries (default 256) of them,
+ * other representations are rendered per request. Bodies are kept on heap and written without copying,
+ * or off heap with encoded_cache_direct=true (copied out in chunks on write).
+ * Concurrent misses of the same body render it once (see SingleFlight).
+ */
+final class EncodedResponses {
+
+    private static final Counter hits = Metrics.counter("http.encoded.responses", "result", "hit");
+    private static final Counter misses = Metrics.counter("http.encoded.responses", "result", "miss");
+
+    private static final int WRITE_CHUNK = 8192;
+
+    private final int maxEntries;
+    private final boolean direct;
+    private final SingleFlight<String, ByteBuffer> renders;
+
+    private volatile Generation generation = new Generation(-1, -1);
+
+    EncodedResponses(final int maxEntries, final boolean direct, final long maxRenderWaitMillis) {
+        this.maxEntries = maxEntries;
+        this.direct = direct;
+        this.renders = new SingleFlight<>("render", maxRenderWaitMillis);
+    }
+
+    /**
+     * @param version        - Catalog version of the rendered body.
+     * @param healthVersion  - Health version of the rendered body, 0 when not probing.
+     * @param representation - e.g. "all-text", unique per rendering of the catalog.
+     * @param render         - renders the body unencoded, called when not kept.
+     * @return Body of given representation in given encoding, shared: not to be written to.
+     */
+    ByteBuffer get(final long version,
+                   final long healthVersion,
+                   final String representation,
+                   final ContentEncoding encoding,
+                   final Supplier<byte[]> render) {
+        Generation current = generation(version, healthVersion);
+        String key = representation + " " + encoding;
+        ByteBuffer body = current == null ? null : current.bodies.get(key);
+        if (body != null) {
+            hits.increment();
+            return body.duplicate();
+        }
+
+        misses.increment();
+        return renders.call(version + " " + healthVersion + " " + key, () -> {
+            byte[] bytes = encoding == ContentEncoding.IDENTITY
+                    ? render.get()
+                    : encoding.encode(toArray(get(version, healthVersion, representation, ContentEncoding.IDENTITY, render)));
+            ByteBuffer rendered = wrap(bytes);
+            if (current != null && current.bodies.size() < maxEntries) {
+                ByteBuffer raced = current.bodies.putIfAbsent(key, rendered);
+                rendered = raced != null ? raced : rendered;
+            }
+            return rendered;
+        }).duplicate();
+    }
+
+    /**
+     * @return Entity writing given body.
+     */
+    static StreamingOutput entity(final ByteBuffer body) {
+        return out -> {
+            if (body.hasArray()) {
+                out.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+                return;
+            }
+            ByteBuffer source = body.duplicate();
+            byte[] chunk = new byte[Math.min(WRITE_CHUNK, source.remaining())];
+            while (source.hasRemaining()) {
+                int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        };
+    }
+
+    /**
+     * @return Bodies kept for given versions, null when the catalog or the health already moved past them.
+     */
+    private Generation generation(final long version, final long healthVersion) {
+        Generation current = generation;
+        if (current.is(version, healthVersion)) {
+            return current;
+        }
+        synchronized (this) {
+            if (generation.version < version
+                    || generation.version == version && generation.healthVersion < healthVersion) {
+                generation = new Generation(version, healthVersion);
+            }
+            return generation.is(version, healthVersion) ? generation : null;
+        }
+    }
+
+    private ByteBuffer wrap(final byte[] bytes) {
+        if (!direct) {
+            return ByteBuffer.wrap(bytes);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    private static byte[] toArray(final ByteBuffer body) {
+        byte[] bytes = new byte[body.remaining()];
+        body.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static final class Generation {
+        private final long version;
+        private final long healthVersion;
+        private final ConcurrentMap<String, ByteBuffer> bodies = new ConcurrentHashMap<>();
+
+        private Generation(final long version, final long healthVersion) {
+            this.version = version;
+            this.healthVersion = healthVersion;
+        }
+
+        private boolean is(final long version, final long healthVersion) {
+            return this.version == version && this.healthVersion == healthVersion;
+        }
+    }
+}
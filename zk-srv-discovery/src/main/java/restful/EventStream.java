@@ -0,0 +1,157 @@
+package restful;
+
+import model.catalog.CatalogEvent;
+import model.catalog.CatalogListener;
+import model.util.CatalogJsonWriter;
+import model.util.Env;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Server-Sent Events stream of catalog changes, shared by all subscribers.
+ * <p>
+ * Every instance change becomes one event (added, updated, removed) whose id is "{epoch}-{catalog index}",
+ * rendered once and broadcast as the same bytes to every subscriber.
+ * The last events_history events (default 1024) are kept, so a reconnecting client
+ * sending Last-Event-ID gets what it missed. When those were already dropped, or the id is not from
+ * this process (catalog indexes restart with the process, the epoch tells), it gets a "reset" event
+ * and should reload the catalog (getAll).
+ */
+public class EventStream implements CatalogListener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventStream.class);
+
+    static final String RESET_EVENT = "reset";
+
+    private final int historySize = Env.getInt("events_history", 1024);
+
+    private final SseBroadcaster broadcaster = new SseBroadcaster();
+
+    // Broadcasting writes to every subscriber, kept off the catalog event thread.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "EventStream Broadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this, accessed by the broadcaster thread and by subscribing requests.
+    private final Deque<IndexedEvent> history = new ArrayDeque<>();
+    private long dropped;
+    private long lastIndex;
+
+    private final Discovery discovery;
+
+    public EventStream(final Discovery discovery) {
+        this.discovery = discovery;
+        discovery.addListener(this);
+    }
+
+    @Override
+    public void catalogChanged(final CatalogEvent event) {
+        OutboundEvent outbound;
+        try {
+            String type = event.getType().name().toLowerCase(Locale.ROOT);
+            outbound = new OutboundEvent.Builder()
+                    .id(eventId(event.getIndex()))
+                    .name(type)
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data(byte[].class, CatalogJsonWriter.eventBytes(type, event.getIndex(), event.getInstance()))
+                    .build();
+        } catch (IOException e) {
+            logger.error("Failed rendering event " + event.getIndex(), e);
+            return;
+        }
+
+        executor.execute(() -> publish(event.getIndex(), outbound));
+    }
+
+    private synchronized void publish(final long index, final OutboundEvent outbound) {
+        history.addLast(new IndexedEvent(index, outbound));
+        while (history.size() > historySize) {
+            dropped = history.removeFirst().index;
+        }
+        lastIndex = index;
+        broadcaster.broadcast(outbound);
+    }
+
+    /**
+     * Opens a stream of changes.
+     *
+     * @param lastEventId - id of the last event seen by the client, null when not resuming from an event.
+     * @param index       - catalog index seen by the client (X-Catalog-Index), used without lastEventId,
+     *                    null for live changes only.
+     */
+    synchronized EventOutput subscribe(final String lastEventId, final Long index) throws IOException {
+        EventOutput output = new EventOutput();
+
+        Long seen = lastEventId != null ? indexOf(lastEventId) : index;
+        if (lastEventId != null || index != null) {
+            // Events up to the catalog version may still be on their way to publish, they are not missed.
+            long current = Math.max(lastIndex, discovery.getCatalogVersion());
+            if (seen == null || seen > current || seen < dropped) {
+                output.write(new OutboundEvent.Builder()
+                        .id(eventId(lastIndex))
+                        .name(RESET_EVENT)
+                        .data(String.class, Long.toString(lastIndex))
+                        .build());
+            } else if (seen < lastIndex) {
+                for (IndexedEvent event : history) {
+                    if (event.index > seen) {
+                        output.write(event.outbound);
+                    }
+                }
+            }
+        }
+
+        // Under the same lock as publish, so no event is missed or sent twice.
+        broadcaster.add(output);
+        return output;
+    }
+
+    private static String eventId(final long index) {
+        return Discovery.EPOCH + "-" + index;
+    }
+
+    /**
+     * @return Catalog index of given event id, null if not an id of this process.
+     */
+    private static Long indexOf(final String eventId) {
+        int separator = eventId.lastIndexOf('-');
+        if (separator < 0 || !Discovery.EPOCH.equals(eventId.substring(0, separator))) {
+            return null;
+        }
+        try {
+            return Long.parseLong(eventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        broadcaster.closeAll();
+    }
+
+    private static final class IndexedEvent {
+        private final long index;
+        private final OutboundEvent outbound;
+
+        private IndexedEvent(final long index, final OutboundEvent outbound) {
+            this.index = index;
+            this.outbound = outbound;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package restful;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * /metrics
+ * Registry and discovery metrics in Prometheus text format.
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    @Inject
+    private PrometheusMeterRegistry registry;
+
+    @GET
+    @Produces(TextFormat.CONTENT_TYPE_004)
+    public String scrape() {
+        return registry.scrape();
+    }
+}
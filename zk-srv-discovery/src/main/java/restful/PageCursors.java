@@ -0,0 +1,128 @@
+package restful;
+
+import model.catalog.FetchResult;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results being paged through, kept for a while so every page of a listing comes from the same snapshot,
+ * without duplicates or gaps while the catalog changes.
+ * <p>
+ * A cursor is "{epoch}-{id}.{offset}", the id is the catalog version of the result (negative for results not
+ * from the catalog). Versions restart with the process, so cursors of another process (restarted, or another
+ * replica) are told apart by the epoch (see Discovery.EPOCH), and are expired here. Results are dropped page_retention_ms (default 60000) after their last page,
+ * or when more than page_retained (default 32) are kept. Paging through a dropped result has to restart.
+ */
+final class PageCursors {
+
+    private final int maxRetained;
+    private final long retentionMillis;
+
+    // Ids of results not from the catalog.
+    private final AtomicLong uncachedIds = new AtomicLong();
+
+    // Guarded by this, least recently paged first.
+    private final LinkedHashMap<Long, Retained> retained = new LinkedHashMap<>(16, 0.75f, true);
+
+    PageCursors(final int maxRetained, final long retentionMillis) {
+        this.maxRetained = Math.max(1, maxRetained);
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Keeps given result for its next pages.
+     *
+     * @return Cursor of the page starting at given offset.
+     */
+    String cursor(final FetchResult result, final int offset) {
+        long id = result.isCached() ? result.getSnapshot().getVersion() : -uncachedIds.incrementAndGet();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Retained current = retained.get(id);
+            if (current == null || current.result != result) {
+                retained.put(id, new Retained(result, now));
+            } else {
+                current.lastUsed = now;
+            }
+            expire(now);
+        }
+        return Discovery.EPOCH + "-" + id + "." + offset;
+    }
+
+    /**
+     * @return The result paged through by given cursor, null if dropped or of another process.
+     */
+    synchronized FetchResult result(final Cursor cursor) {
+        if (!Discovery.EPOCH.equals(cursor.epoch)) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        expire(now);
+        Retained current = retained.get(cursor.id);
+        if (current == null) {
+            return null;
+        }
+        current.lastUsed = now;
+        return current.result;
+    }
+
+    /**
+     * @throws IllegalArgumentException if not a valid cursor.
+     */
+    static Cursor parse(final String cursor) {
+        int epoch = cursor.indexOf('-');
+        int separator = cursor.lastIndexOf('.');
+        if (epoch <= 0 || separator <= epoch + 1) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        try {
+            int offset = Integer.parseInt(cursor.substring(separator + 1));
+            if (offset < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return new Cursor(cursor.substring(0, epoch), Long.parseLong(cursor.substring(epoch + 1, separator)), offset);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    private void expire(final long now) {
+        Iterator<Map.Entry<Long, Retained>> oldest = retained.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Retained next = oldest.next().getValue();
+            if (retained.size() <= maxRetained && now - next.lastUsed <= retentionMillis) {
+                break;
+            }
+            oldest.remove();
+        }
+    }
+
+    static final class Cursor {
+        private final String epoch;
+        private final long id;
+        private final int offset;
+
+        private Cursor(final String epoch, final long id, final int offset) {
+            this.epoch = epoch;
+            this.id = id;
+            this.offset = offset;
+        }
+
+        int getOffset() {
+            return offset;
+        }
+    }
+
+    private static final class Retained {
+        private final FetchResult result;
+        private long lastUsed;
+
+        private Retained(final FetchResult result, final long lastUsed) {
+            this.result = result;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
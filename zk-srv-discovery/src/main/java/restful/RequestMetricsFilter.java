@@ -0,0 +1,75 @@
+package restful;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.glassfish.jersey.server.ExtendedUriInfo;
+import org.glassfish.jersey.uri.UriTemplate;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency of every request, as http.server.requests histograms
+ * by method, endpoint (path template) and status.
+ * Suspended requests are timed until resumed, event streams until the stream is opened.
+ */
+@Provider
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String START_PROPERTY = RequestMetricsFilter.class.getName() + ".start";
+
+    // Timers by method, endpoint and status, resolved once.
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    @Context
+    private ExtendedUriInfo uriInfo;
+
+    @Override
+    public void filter(final ContainerRequestContext request) {
+        request.setProperty(START_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(final ContainerRequestContext request, final ContainerResponseContext response) {
+        Object start = request.getProperty(START_PROPERTY);
+        if (start == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - (Long) start;
+        timer(request.getMethod(), endpoint(), response.getStatus()).record(elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return Matched path template, e.g. /zk-srv-discovery/{ServiceName}, so paths don't explode the tags.
+     */
+    private String endpoint() {
+        StringBuilder endpoint = new StringBuilder();
+        List<UriTemplate> templates = uriInfo.getMatchedTemplates();
+        for (int i = templates.size() - 1; i >= 0; i--) {
+            endpoint.append(templates.get(i).getTemplate());
+        }
+        return endpoint.length() == 0 ? "UNMATCHED" : endpoint.toString().replace("//", "/");
+    }
+
+    private static Timer timer(final String method, final String endpoint, final int status) {
+        String key = method + " " + endpoint + " " + status;
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, k -> Timer.builder("http.server.requests")
+                    .tag("method", method)
+                    .tag("uri", endpoint)
+                    .tag("status", Integer.toString(status))
+                    .publishPercentileHistogram()
+                    .register(Metrics.globalRegistry));
+        }
+        return timer;
+    }
+}
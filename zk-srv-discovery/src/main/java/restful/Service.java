@@ -1,25 +1,77 @@
 package restful;
 
+import model.catalog.CatalogQuery;
+import model.catalog.CatalogSnapshot;
+import model.catalog.FetchResult;
+import model.util.CatalogJsonWriter;
 import model.util.ServiceInstance;
-import org.apache.commons.lang3.StringUtils;
+import model.util.TableRenderer;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.SseFeature;
 
+import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Path("/zk-srv-discovery")
 @Produces({MediaType.TEXT_PLAIN})
 public class Service {
 
-    // Default ZK Path for discovery service.
-    private static final String PATH = "/zk-srv-discovery";
+    // Set when zk did not answer every read in time, value is the number of missing zk paths.
+    static final String PARTIAL_RESULT_HEADER = "X-Partial-Result";
 
-    // Connecting to ZooKeeper from env-var
-    private static final String ZK_CONNECT_STRING = System.getenv("zk_address");
+    // Catalog index of the response, to be passed back as ?index= by blocking queries.
+    static final String CATALOG_INDEX_HEADER = "X-Catalog-Index";
 
-    // Getting information from ZooKeeper
-    private final Discovery discovery = new Discovery(PATH, ZK_CONNECT_STRING);
+    // Set when zk is not available and the last known instances are served, value is their time in millis.
+    static final String STALE_RESULT_HEADER = "X-Stale-Result";
+
+    // Cursor of the next page of a paged /getAll, missing on the last page.
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    private static final long DEFAULT_WAIT_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MAX_WAIT_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String SRV_VERSION = "zk-srv-discovery:" + System.getenv("SRV_VERSION");
+
+
+    // Getting information from ZooKeeper, shared application-wide session.
+    @Inject
+    private Discovery discovery;
+
+    // Stream of catalog changes, shared by all subscribers.
+    @Inject
+    private EventStream eventStream;
 
     /**
      * /zk-srv-discovery/health
@@ -29,137 +81,583 @@ public class Service {
     @GET
     @Path("/health")
     @Produces({MediaType.TEXT_PLAIN})
-    public Response getStatus() throws Exception {
-
-        discovery.start();
-        String entity = discovery.getStatus();
-        Response response = Response.ok(entity).build();
+    public Response getStatus() {
+        return Response.ok(discovery.getStatus()).build();
+    }
 
-        discovery.close();
 
-        return response;
+    /**
+     * /zk-srv-discovery/events
+     * Server-Sent Events of instance changes (added, updated, removed), the event id is "{epoch}-{catalog index}".
+     * Reconnecting clients resume with the Last-Event-ID header, or the index query param (X-Catalog-Index).
+     * After a restart of this service the epoch differs, and the client gets a "reset" event.
+     *
+     * @return Stream of catalog changes.
+     */
+    @GET
+    @Path("/events")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public EventOutput getEvents(@HeaderParam(SseFeature.LAST_EVENT_ID_HEADER) final String lastEventId,
+                                 @QueryParam("index") final Long index) throws IOException {
+        return eventStream.subscribe(lastEventId, index);
     }
 
-
     /**
      * /zk-srv-discovery/{serviceName}
+     * Text table by default, JSON array when application/json is preferred.
+     * <p>
+     * Blocking query: with ?index=N the request is suspended until the index of the service
+     * moves past N, or until wait elapses (e.g. wait=30s, 5m or 1500ms; default 5m, max 10m),
+     * then answered with the current instances. Responses carry the service index in X-Catalog-Index.
+     * <p>
+     * When instances are probed (health_probe_interval_ms), rows end with their health, JSON instances
+     * have "healthy", and ?healthy=true (or false) keeps the instances last probed healthy (or not).
      *
      * @return Data associated to supplied service name.
      */
     @GET
     @Path("/{ServiceName}")
-    @Produces({MediaType.TEXT_PLAIN})
-    public Response getServiceJson(@PathParam("ServiceName") final String serviceName) throws Exception {
+    @Produces({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
+    public void getServiceJson(@PathParam("ServiceName") final String serviceName,
+                               @QueryParam("MediaType") final String mediaType,
+                               @QueryParam("index") final Long index,
+                               @QueryParam("wait") final String wait,
+                               @QueryParam("healthy") final Boolean healthy,
+                               @Context final HttpHeaders headers,
+                               @Context final Request request,
+                               @Suspended final AsyncResponse response) {
+
+        boolean json = wantsJson(mediaType, headers);
+        ContentEncoding encoding = ContentEncoding.negotiate(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        checkHealthFilter(healthy);
+        CompletableFuture<FetchResult> query = discovery.isConnected()
+                ? discovery.queryForInstancesAsync(serviceName)
+                : CompletableFuture.completedFuture(discovery.queryStale());
+
+        answer(query, response, result -> {
+            if (index == null || !result.isCached() || result.getSnapshot().getIndex(serviceName) > index) {
+                response.resume(serviceResponse(serviceName, result, json, encoding, healthy, request));
+                return;
+            }
+
+            // Parked without a worker thread, until the catalog moves or the wait times out.
+            CompletableFuture<CatalogSnapshot> change = discovery.awaitChange(serviceName, index);
+            response.setTimeout(parseWait(wait), TimeUnit.MILLISECONDS);
+            response.setTimeoutHandler(timedOut -> {
+                change.cancel(false);
+                timedOut.resume(serviceResponse(serviceName, result, json, encoding, healthy, null));
+            });
+            change.thenAcceptAsync(snapshot ->
+                            response.resume(serviceResponse(serviceName, FetchResult.of(snapshot), json, encoding, healthy, null)),
+                    discovery.getAsyncExecutor());
+        });
+    }
+
+    /**
+     * Answers a suspended request from the result of given query: on this thread when already known,
+     * otherwise on the async executor once zk answered, so no worker thread waits for zk.
+     * A null result (zk not available, nothing known) is answered with the connection status.
+     */
+    private void answer(final CompletableFuture<FetchResult> query,
+                        final AsyncResponse response,
+                        final Consumer<FetchResult> answer) {
+        BiConsumer<FetchResult, Throwable> complete = (result, e) -> {
+            if (e != null) {
+                response.resume(e instanceof CompletionException ? e.getCause() : e);
+            } else if (result == null) {
+                response.resume(Response.ok(Discovery.STATUS_NOT_CONNECTED, MediaType.TEXT_PLAIN_TYPE).build());
+            } else {
+                try {
+                    answer.accept(result);
+                } catch (RuntimeException answerError) {
+                    response.resume(answerError);
+                }
+            }
+        };
+
+        if (query.isDone()) {
+            query.whenComplete(complete);
+        } else {
+            query.whenCompleteAsync(complete, discovery.getAsyncExecutor());
+        }
+    }
+
+    /**
+     * Builds the response for a single service.
+     *
+     * @param request - for evaluating conditional requests, null to skip.
+     */
+    private Response serviceResponse(final String serviceName,
+                                     final FetchResult result,
+                                     final boolean json,
+                                     final ContentEncoding encoding,
+                                     final Boolean healthy,
+                                     final Request request) {
+        long healthVersion = discovery.getHealthVersion();
+        EntityTag tag = entityTag(result, json, encoding, healthy, healthVersion);
+        Response.ResponseBuilder notModified =
+                tag == null || request == null ? null : request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+        }
+
+        Function<ServiceInstance, Boolean> health = discovery.getHealth();
+        List<ServiceInstance> instances = withHealth(result.getSnapshot().getInstances(serviceName), health, healthy);
+        long index = result.getSnapshot().getIndex(serviceName);
+        boolean encodable = healthy == null && isEncodable(result);
+        if (json) {
+            StreamingOutput output = out -> CatalogJsonWriter.writeInstances(out, instances, health);
+            return encodable
+                    ? encoded("service-json " + serviceName, () -> render(output),
+                    MediaType.APPLICATION_JSON_TYPE, result, tag, index, healthVersion, encoding)
+                    : ok(output, MediaType.APPLICATION_JSON_TYPE, result, tag, index);
+        }
+        return encodable
+                ? encoded("service-text " + serviceName, () -> render(toInstanceTable(instances, health)),
+                MediaType.TEXT_PLAIN_TYPE, result, tag, index, healthVersion, encoding)
+                : ok(staleMarker(result) + toInstanceTable(instances, health), MediaType.TEXT_PLAIN_TYPE, result, tag, index);
+    }
+
+    /**
+     * @return Wait of a blocking query in millis.
+     */
+    private static long parseWait(final String wait) {
+        if (wait == null || wait.isEmpty()) {
+            return DEFAULT_WAIT_MS;
+        }
+
+        String value = wait.trim();
+        long unit = 1000;
+        if (value.endsWith("ms")) {
+            unit = 1;
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            unit = 60 * 1000;
+            value = value.substring(0, value.length() - 1);
+        }
 
-        // Starts connection with zk.
-        discovery.start();
+        try {
+            return Math.max(0, Math.min(Long.parseLong(value) * unit, MAX_WAIT_MS));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid wait: " + wait);
+        }
+    }
 
-        Object entity = discovery.getStatus().compareTo("IMOK") != 0 ?
-                "NO CONNECTION" :
-                toInstanceTable(discovery.queryForInstances(serviceName));
+    /**
+     * /zk-srv-discovery/query
+     * Instances matching all given filters, as text rows or as a JSON array (like /{ServiceName}):
+     * prefix (service name prefix), version, meta (key=value, repeatable), host (name or address),
+     * from and to (registration time range, inclusive, in millis or ISO-8601 e.g. 2018-01-31T10:00:00Z),
+     * healthy (true or false, as last probed, when instances are probed).
+     * <p>
+     * Served from the catalog indexes, so selective queries do not scan the whole catalog.
+     *
+     * @return Matching instances, sorted by service name and id.
+     */
+    @GET
+    @Path("/query")
+    @Produces({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
+    public void query(@QueryParam("prefix") final String prefix,
+                      @QueryParam("version") final String version,
+                      @QueryParam("meta") final List<String> metadata,
+                      @QueryParam("host") final String host,
+                      @QueryParam("from") final String from,
+                      @QueryParam("to") final String to,
+                      @QueryParam("healthy") final Boolean healthy,
+                      @QueryParam("MediaType") final String mediaType,
+                      @Context final HttpHeaders headers,
+                      @Suspended final AsyncResponse response) {
+
+        CatalogQuery query = parseQuery(prefix, version, metadata, host, from, to);
+        checkHealthFilter(healthy);
+        boolean json = wantsJson(mediaType, headers);
+        CompletableFuture<FetchResult> fetch = discovery.isConnected()
+                ? discovery.queryForInstancesAsync()
+                : CompletableFuture.completedFuture(discovery.queryStale());
+
+        answer(fetch, response, result -> {
+            Function<ServiceInstance, Boolean> health = discovery.getHealth();
+            List<ServiceInstance> instances = withHealth(discovery.query(result, query), health, healthy);
+            long index = result.getSnapshot().getVersion();
+            if (json) {
+                StreamingOutput output = out -> CatalogJsonWriter.writeInstances(out, instances, health);
+                response.resume(ok(output, MediaType.APPLICATION_JSON_TYPE, result, null, index));
+            } else {
+                response.resume(ok(staleMarker(result) + toInstanceTable(instances, health),
+                        MediaType.TEXT_PLAIN_TYPE, result, null, index));
+            }
+        });
+    }
+
+    private static CatalogQuery parseQuery(final String prefix,
+                                           final String version,
+                                           final List<String> metadata,
+                                           final String host,
+                                           final String from,
+                                           final String to) {
+        CatalogQuery query = new CatalogQuery();
+        if (prefix != null && !prefix.isEmpty()) {
+            query.namePrefix(prefix);
+        }
+        if (version != null && !version.isEmpty()) {
+            query.version(version);
+        }
+        if (metadata != null) {
+            for (String pair : metadata) {
+                int separator = pair.indexOf('=');
+                if (separator <= 0) {
+                    throw new BadRequestException("Invalid meta: " + pair + ", expected key=value");
+                }
+                query.metadata(pair.substring(0, separator), pair.substring(separator + 1));
+            }
+        }
+        if (host != null && !host.isEmpty()) {
+            query.host(host);
+        }
+        if (from != null || to != null) {
+            long fromTime = parseTime(from, Long.MIN_VALUE);
+            long toTime = parseTime(to, Long.MAX_VALUE);
+            if (fromTime > toTime) {
+                throw new BadRequestException("Invalid time range: from " + from + " is after to " + to);
+            }
+            query.registeredBetween(fromTime, toTime);
+        }
+        return query;
+    }
 
-        Response response = Response.ok(entity).build();
+    /**
+     * @return Time in millis, given in millis or ISO-8601.
+     */
+    private static long parseTime(final String time, final long defaultValue) {
+        if (time == null || time.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return time.chars().allMatch(Character::isDigit)
+                    ? Long.parseLong(time)
+                    : Instant.parse(time).toEpochMilli();
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new BadRequestException("Invalid time: " + time);
+        }
+    }
 
+    private void checkHealthFilter(final Boolean healthy) {
+        if (healthy != null && discovery.getHealth() == null) {
+            throw new BadRequestException("Instances are not probed, see health_probe_interval_ms");
+        }
+    }
 
-        // Close connection with zk.
-        discovery.close();
+    /**
+     * @param healthy - keeps the instances last probed healthy (true) or unhealthy (false), null for all.
+     * @return Given instances, with given health.
+     */
+    private static List<ServiceInstance> withHealth(final List<ServiceInstance> instances,
+                                                    final Function<ServiceInstance, Boolean> health,
+                                                    final Boolean healthy) {
+        if (healthy == null) {
+            return instances;
+        }
+        return instances.stream()
+                .filter(instance -> healthy.equals(health.apply(instance)))
+                .collect(Collectors.toList());
+    }
 
-        return response;
+    /**
+     * @return Given services with the instances of given health, services left without instances are dropped.
+     */
+    private static SortedMap<String, List<ServiceInstance>> withHealth(final SortedMap<String, List<ServiceInstance>> services,
+                                                                       final Function<ServiceInstance, Boolean> health,
+                                                                       final Boolean healthy) {
+        if (healthy == null) {
+            return services;
+        }
+        SortedMap<String, List<ServiceInstance>> filtered = new TreeMap<>();
+        services.forEach((name, instances) -> {
+            List<ServiceInstance> kept = withHealth(instances, health, healthy);
+            if (!kept.isEmpty()) {
+                filtered.put(name, kept);
+            }
+        });
+        return filtered;
     }
 
     /**
      * /zk-srv-discovery/getAll
+     * Text table by default, streamed JSON when application/json is preferred
+     * (Accept header, or MediaType query param).
+     * Before the catalog is loaded the request is suspended while zk is read, not holding a worker thread.
+     * <p>
+     * Paging: with ?limit=N only the first N instances are returned (ordered by service name, then id),
+     * and X-Next-Cursor (also "next" in JSON) holds the cursor of the next page, to be passed back
+     * as ?cursor= (limit defaults to 1000 then, max 10000). All pages come from the snapshot of the first one.
+     * An expired cursor, or one of another process (restarted, or another replica), is answered with 410 Gone,
+     * paging has to restart from the first page.
+     * <p>
+     * When instances are probed, ?healthy=true (or false) keeps the instances last probed healthy (or not),
+     * pages are filtered after paging then.
      *
      * @return Displays all registered service's data available.
      */
     @GET
     @Path("/getAll")
-    @Produces({MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN})
-    public Response getAllServices(@DefaultValue(MediaType.TEXT_PLAIN)
-                                   @QueryParam("MediaType") String mediaType) throws Exception {
+    @Produces({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
+    public void getAllServices(@QueryParam("MediaType") final String mediaType,
+                               @QueryParam("limit") final Integer limit,
+                               @QueryParam("cursor") final String cursor,
+                               @QueryParam("healthy") final Boolean healthy,
+                               @Context final HttpHeaders headers,
+                               @Context final Request request,
+                               @Suspended final AsyncResponse response) {
+
+        boolean json = wantsJson(mediaType, headers);
+        ContentEncoding encoding = ContentEncoding.negotiate(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        checkHealthFilter(healthy);
+        if (cursor != null) {
+            PageCursors.Cursor position;
+            try {
+                position = PageCursors.parse(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+            FetchResult paged = discovery.getPageCursors().result(position);
+            if (paged == null) {
+                response.resume(Response.status(Response.Status.GONE)
+                        .entity("Cursor expired, restart from the first page")
+                        .type(MediaType.TEXT_PLAIN_TYPE)
+                        .build());
+                return;
+            }
+            response.resume(pageResponse(paged, position.getOffset(), pageSize(limit), json, healthy));
+            return;
+        }
 
         // Private case of getService
-        discovery.start();
+        CompletableFuture<FetchResult> query = discovery.isConnected()
+                ? discovery.queryForInstancesAsync()
+                : CompletableFuture.completedFuture(discovery.queryStale());
 
-        Object entity = discovery.getStatus().compareTo("IMOK") != 0 ?
-                "NO CONNECTION" :
-                toTable(discovery.queryForInstances());
+        answer(query, response, result -> response.resume(limit == null
+                ? allServicesResponse(result, json, encoding, healthy, request)
+                : pageResponse(result, 0, pageSize(limit), json, healthy)));
+    }
 
-        Response response = Response.ok(entity).build();
-        discovery.close();
-        return response;
+    private static int pageSize(final Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit <= 0) {
+            throw new BadRequestException("Invalid limit: " + limit);
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
     }
 
     /**
-     * Helping method for creating table
-     *
-     * @param collection - Collection of POJO service instances.
+     * Builds the response for a page of all services, keeping the result for the next pages.
+     */
+    private Response pageResponse(final FetchResult result,
+                                  final int offset,
+                                  final int limit,
+                                  final boolean json,
+                                  final Boolean healthy) {
+        CatalogSnapshot snapshot = result.getSnapshot();
+        Function<ServiceInstance, Boolean> health = discovery.getHealth();
+        SortedMap<String, List<ServiceInstance>> page = withHealth(snapshot.page(offset, limit), health, healthy);
+        String next = offset + limit < snapshot.size() ? discovery.getPageCursors().cursor(result, offset + limit) : null;
+
+        Response.ResponseBuilder builder;
+        if (json) {
+            StreamingOutput output = out -> CatalogJsonWriter.writeServices(out,
+                    discovery.getConnectString(), SRV_VERSION, page, result.getStaleSince(), next, health);
+            builder = okBuilder(output, MediaType.APPLICATION_JSON_TYPE, result, null, snapshot.getVersion());
+        } else {
+            builder = okBuilder(staleMarker(result) + toTable(page.values(), health),
+                    MediaType.TEXT_PLAIN_TYPE, result, null, snapshot.getVersion());
+        }
+        return builder.header(NEXT_CURSOR_HEADER, next).build();
+    }
+
+    /**
+     * Builds the response for all services.
      */
-    private String toInstanceTable(final Collection<ServiceInstance> collection) {
+    private Response allServicesResponse(final FetchResult result,
+                                         final boolean json,
+                                         final ContentEncoding encoding,
+                                         final Boolean healthy,
+                                         final Request request) {
+        // Unchanged catalog: answer 304 before rendering anything.
+        long healthVersion = discovery.getHealthVersion();
+        EntityTag tag = entityTag(result, json, encoding, healthy, healthVersion);
+        Response.ResponseBuilder notModified = tag == null ? null : request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+        }
 
-        StringBuilder table = new StringBuilder();
-        for (ServiceInstance servicePOJO : collection) {
-            table.append(servicePOJO.toTableRow()).append('\n');
+        Function<ServiceInstance, Boolean> health = discovery.getHealth();
+        SortedMap<String, List<ServiceInstance>> services = withHealth(result.getSnapshot().getServices(), health, healthy);
+        long index = result.getSnapshot().getVersion();
+        boolean encodable = healthy == null && isEncodable(result);
+        if (json) {
+            StreamingOutput output = out -> CatalogJsonWriter.writeServices(out,
+                    discovery.getConnectString(), SRV_VERSION, services, result.getStaleSince(), null, health);
+            return encodable
+                    ? encoded("all-json", () -> render(output),
+                    MediaType.APPLICATION_JSON_TYPE, result, tag, index, healthVersion, encoding)
+                    : ok(output, MediaType.APPLICATION_JSON_TYPE, result, tag, index);
         }
+        return encodable
+                ? encoded("all-text", () -> render(toTable(services.values(), health)),
+                MediaType.TEXT_PLAIN_TYPE, result, tag, index, healthVersion, encoding)
+                : ok(staleMarker(result) + toTable(services.values(), health), MediaType.TEXT_PLAIN_TYPE, result, tag, index);
+    }
 
-        return table.toString();
+    /**
+     * @return Whether the response for given result is kept in the encoded responses:
+     * complete and current results of the catalog, rendered the same until the catalog moves.
+     */
+    private static boolean isEncodable(final FetchResult result) {
+        return result.isCached() && result.isComplete() && !result.isStale();
     }
 
     /**
-     * Creates table of service instances registered to zk-service-discovery.
+     * Builds OK response of a body rendered and encoded once per catalog version (see EncodedResponses).
      *
-     * @param collections - Collection of ServiceInstances.
-     * @return Table as String.
+     * @param representation - key of the rendering, e.g. "all-text".
      */
-    private String toTable(final Collection<Collection<ServiceInstance>> collections) {
-
-        StringBuilder table = new StringBuilder();
-
-        table.append("Connected to ZK=")
-                .append(ZK_CONNECT_STRING)
-                .append('\n')
-                .append("version=");
+    private Response encoded(final String representation,
+                             final Supplier<byte[]> render,
+                             final MediaType type,
+                             final FetchResult result,
+                             final EntityTag tag,
+                             final long index,
+                             final long healthVersion,
+                             final ContentEncoding encoding) {
+        ByteBuffer body = discovery.getEncodedResponses()
+                .get(result.getSnapshot().getVersion(), healthVersion, representation, encoding, render);
+        return okBuilder(EncodedResponses.entity(body), type, result, tag, index)
+                .header(HttpHeaders.CONTENT_ENCODING, encoding.getName())
+                .build();
+    }
 
-        table.append("zk-srv-discovery:")
-                .append(System.getenv("SRV_VERSION"))
-                .append('\n')
-                .append('\n');
+    private static byte[] render(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
 
-        // Building a header
+    private static byte[] render(final StreamingOutput output) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            output.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
 
-        String s = "|";
-        String space = " ";
+    /**
+     * Entity tag of a representation, derived from the catalog version, and the health version when probing.
+     * Each media type, health filter and content encoding is a representation of its own, with its own tag.
+     *
+     * @return null when the result is not from the catalog (cold read from zk).
+     */
+    private static EntityTag entityTag(final FetchResult result,
+                                       final boolean json,
+                                       final ContentEncoding encoding,
+                                       final Boolean healthy,
+                                       final long healthVersion) {
+        if (!result.isCached()) {
+            return null;
+        }
+        return new EntityTag(Discovery.EPOCH + "-" + result.getSnapshot().getVersion()
+                + (healthVersion == 0 ? "" : "." + healthVersion)
+                + (json ? "-json" : "-text")
+                + (healthy == null ? "" : healthy ? ".healthy" : ".unhealthy")
+                + (encoding == ContentEncoding.IDENTITY ? "" : "." + encoding.getName()));
+    }
 
-        String date = String.format("%-22s", "Date");
-        String serviceName = String.format("%-33s", "ServiceName");
-        String host = String.format("%-51s", "Host: Name,IP,Port");
-        String version = String.format("%-81s", "Version,MetaData,ZK-ID");
+    /**
+     * Picks JSON when asked for by the MediaType query param,
+     * or when the Accept header prefers JSON over text. Text otherwise.
+     */
+    private static boolean wantsJson(final String mediaType, final HttpHeaders headers) {
+        if (mediaType != null) {
+            try {
+                return MediaType.APPLICATION_JSON_TYPE.isCompatible(MediaType.valueOf(mediaType));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
 
-        table
-                .append(s).append(space).append(date)
-                .append(s).append(space).append(serviceName)
-                .append(s).append(space).append(host)
-                .append(s).append(space).append(version)
-                .append(s)
-                .append('\n');
+        // Sorted by preference, wildcards match text first.
+        for (MediaType accepted : headers.getAcceptableMediaTypes()) {
+            if (accepted.isCompatible(MediaType.TEXT_PLAIN_TYPE)) {
+                return false;
+            }
+            if (accepted.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // Building separating line after header
+    /**
+     * Builds OK response, marked as partial when the result is incomplete.
+     * Results from the catalog carry given catalog index.
+     */
+    private static Response ok(final Object entity,
+                               final MediaType type,
+                               final FetchResult result,
+                               final EntityTag tag,
+                               final long index) {
+        return okBuilder(entity, type, result, tag, index).build();
+    }
 
-        String u = "_";
-        String first = StringUtils.leftPad(s, 24, u);
-        String second = StringUtils.leftPad(s, 35, u);
-        String third = StringUtils.leftPad(s, 53, u);
-        String fourth = StringUtils.leftPad(s, 83, u);
+    private static Response.ResponseBuilder okBuilder(final Object entity,
+                                                      final MediaType type,
+                                                      final FetchResult result,
+                                                      final EntityTag tag,
+                                                      final long index) {
+        // Text or JSON by the Accept header (see wantsJson).
+        Response.ResponseBuilder builder = Response.ok(entity, type).tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (result.isCached()) {
+            builder.header(CATALOG_INDEX_HEADER, index);
+        }
+        if (!result.isComplete()) {
+            builder.header(PARTIAL_RESULT_HEADER, result.getMissing().size());
+        }
+        if (result.isStale()) {
+            builder.header(STALE_RESULT_HEADER, result.getStaleSince());
+        }
+        return builder;
+    }
 
-        table
-                .append(s).append(first)
-                .append(second)
-                .append(third)
-                .append(fourth)
-                .append('\n');
+    /**
+     * @return First line of text responses served stale, empty otherwise.
+     */
+    private static String staleMarker(final FetchResult result) {
+        return result.isStale() ? TableRenderer.renderStaleMarker(result.getStaleSince()) : "";
+    }
 
-        collections.forEach(collection -> table.append(toInstanceTable(collection)));
+    /**
+     * Helping method for creating table
+     *
+     * @param collection - Collection of POJO service instances.
+     * @param health     - health of an instance, null when not probing.
+     */
+    private String toInstanceTable(final Collection<ServiceInstance> collection,
+                                   final Function<ServiceInstance, Boolean> health) {
+        return TableRenderer.renderRows(collection, health);
+    }
 
-        return table.toString();
+    /**
+     * Creates table of service instances registered to zk-service-discovery.
+     *
+     * @param collections - Collection of ServiceInstances.
+     * @param health      - health of an instance, null when not probing.
+     * @return Table as String.
+     */
+    private String toTable(final Collection<? extends Collection<ServiceInstance>> collections,
+                           final Function<ServiceInstance, Boolean> health) {
+        return TableRenderer.renderTable(discovery.getConnectString(), SRV_VERSION, collections, health);
     }
 }
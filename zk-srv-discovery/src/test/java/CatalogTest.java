@@ -0,0 +1,266 @@
+import model.catalog.Catalog;
+import model.catalog.CatalogQuery;
+import model.catalog.CatalogSnapshot;
+import model.catalog.FanOutFetcher;
+import model.catalog.FetchResult;
+import model.catalog.InstanceConverter;
+import model.catalog.SnapshotFile;
+import model.util.InstancePayload;
+import model.util.InstancePayloadSerializer;
+import model.util.Liveness;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.curator.test.TestingServer;
+import org.apache.curator.x.discovery.ServiceDiscovery;
+import org.apache.curator.x.discovery.ServiceDiscoveryBuilder;
+import org.apache.curator.x.discovery.ServiceInstance;
+import org.apache.zookeeper.CreateMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class CatalogTest {
+
+    private static final String PATH = "/zk-srv-discovery";
+    private static final long TIMEOUT_MS = 5000;
+    private static final int N = 5;
+
+    private TestingServer ts;
+    private CuratorFramework client;
+    private ServiceDiscovery<Object> serviceDiscovery;
+    private Catalog catalog;
+
+    @Before
+    public void setUp() throws Exception {
+        ts = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(ts.getConnectString(), new ExponentialBackoffRetry(1000, 3));
+        client.start();
+
+        serviceDiscovery = ServiceDiscoveryBuilder.builder(Object.class)
+                .client(client)
+                .basePath(PATH)
+                .build();
+        serviceDiscovery.start();
+
+        catalog = new Catalog(client, PATH);
+        catalog.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        catalog.close();
+        serviceDiscovery.close();
+        client.close();
+        ts.close();
+    }
+
+    @Test
+    public void testCatalogFollowsRegistrations() throws Exception {
+        ServiceInstance<Object> worker = ServiceInstance.builder()
+                .name("Worker")
+                .address("localhost")
+                .port(18005)
+                .payload("[1.0.0] [Check]")
+                .build();
+
+        serviceDiscovery.registerService(worker);
+        CatalogSnapshot snapshot = await(s -> s.getInstances("Worker").size() == 1);
+
+        model.util.ServiceInstance pojo = snapshot.getInstances("Worker").get(0);
+        assertTrue(pojo.toString().contains(worker.getId()));
+        assertEquals(1, snapshot.size());
+
+        long version = snapshot.getVersion();
+        serviceDiscovery.unregisterService(worker);
+        snapshot = await(s -> s.getInstances("Worker").isEmpty());
+
+        assertTrue(snapshot.getVersion() > version);
+        assertEquals(0, snapshot.size());
+    }
+
+    @Test
+    public void testSnapshotSharesUnchangedServices() throws Exception {
+        serviceDiscovery.registerService(worker("Worker", 18005));
+        serviceDiscovery.registerService(worker("Other", 18006));
+        CatalogSnapshot before = await(s -> s.size() == 2);
+
+        serviceDiscovery.registerService(worker("Other", 18007));
+        CatalogSnapshot after = await(s -> s.size() == 3);
+
+        assertSame(before.getInstances("Worker"), after.getInstances("Worker"));
+        assertEquals(before.getIndex("Worker"), after.getIndex("Worker"));
+        assertTrue(after.getIndex("Other") > before.getIndex("Other"));
+        assertEquals(Arrays.asList("Other", "Worker"), new ArrayList<>(after.getServices().keySet()));
+    }
+
+    @Test
+    public void testFanOutFetchReadsAllServices() throws Exception {
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                serviceDiscovery.registerService(ServiceInstance.builder()
+                        .name("Worker_" + i)
+                        .address("localhost")
+                        .port(18005 + j)
+                        .payload("[1.0.0] [Check]")
+                        .build());
+            }
+        }
+
+        // Fewer permits than services, so operations have to be queued.
+        FetchResult result = new FanOutFetcher(client, PATH, 2, TIMEOUT_MS).fetchAll().get();
+
+        assertTrue(result.isComplete());
+        assertEquals(N, result.getSnapshot().getServices().size());
+        assertEquals(N * N, result.getSnapshot().size());
+
+        result = new FanOutFetcher(client, PATH, 2, TIMEOUT_MS).fetch("Worker_0").get();
+        assertEquals(N, result.getSnapshot().getInstances("Worker_0").size());
+    }
+
+    @Test
+    public void testCatalogHidesStaleInstances() throws Exception {
+        Catalog ttlCatalog = new Catalog(client, PATH, Liveness.path(PATH), new InstanceConverter());
+        ttlCatalog.start();
+
+        ServiceInstance<Object> worker = ServiceInstance.builder()
+                .name("Worker")
+                .address("localhost")
+                .port(18005)
+                .payload("[1.0.0] [Check]")
+                .build();
+        serviceDiscovery.registerService(worker);
+        await(ttlCatalog, s -> s.getInstances("Worker").size() == 1);
+
+        // Registrant clock a minute ahead, no heartbeat after the first one: stale once its TTL is over.
+        String liveness = ZKPaths.makePath(Liveness.path(PATH), "Worker", worker.getId());
+        client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                .forPath(liveness, Liveness.encode(System.currentTimeMillis() + 60000, 500));
+        await(ttlCatalog, s -> s.getInstances("Worker").isEmpty());
+
+        // Registrant clock a minute behind, heartbeat just written: live.
+        client.setData().forPath(liveness, Liveness.encode(System.currentTimeMillis() - 60000, 30000));
+        await(ttlCatalog, s -> s.getInstances("Worker").size() == 1);
+
+        ttlCatalog.close();
+    }
+
+    @Test
+    public void testSnapshotFileRoundTrip() throws Exception {
+        serviceDiscovery.registerService(ServiceInstance.builder()
+                .name("Worker")
+                .address("localhost")
+                .port(18005)
+                .payload("[1.0.0] [Check]")
+                .build());
+        CatalogSnapshot snapshot = await(s -> s.getInstances("Worker").size() == 1);
+
+        Path path = Files.createTempDirectory("catalog").resolve("catalog.snapshot");
+        new SnapshotFile(path, ts.getConnectString()).write(snapshot);
+
+        FetchResult saved = new SnapshotFile(path, ts.getConnectString()).read();
+        assertTrue(saved.isStale());
+        assertFalse(saved.isCached());
+        assertEquals(snapshot.getVersion(), saved.getSnapshot().getVersion());
+        assertEquals(snapshot.getInstances("Worker").get(0).toString(),
+                saved.getSnapshot().getInstances("Worker").get(0).toString());
+        assertEquals("1.0.0", saved.getSnapshot().getInstances("Worker").get(0).getVersion());
+        assertEquals(snapshot.getInstances("Worker").get(0).getRegistrationTime(),
+                saved.getSnapshot().getInstances("Worker").get(0).getRegistrationTime());
+
+        // Written for another zk.
+        assertNull(new SnapshotFile(path, "elsewhere:2181").read());
+
+        // Corrupted.
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(path, bytes);
+        assertNull(new SnapshotFile(path, ts.getConnectString()).read());
+    }
+
+    @Test
+    public void testIndexedQueries() throws Exception {
+        ServiceDiscovery<InstancePayload> typedDiscovery = ServiceDiscoveryBuilder.builder(InstancePayload.class)
+                .client(client)
+                .basePath(PATH)
+                .serializer(InstancePayloadSerializer.binary())
+                .build();
+
+        List<ServiceInstance<InstancePayload>> instances = new ArrayList<>();
+        for (int i = 0; i < N * N; i++) {
+            ServiceInstance<InstancePayload> instance = ServiceInstance.<InstancePayload>builder()
+                    .name((i % 2 == 0 ? "Worker_" : "Master_") + i % N)
+                    .address("host-" + i + " 10.0.0." + i)
+                    .port(18005)
+                    .payload(new InstancePayload(i < N ? "2.0.0" : "1.0.0", "Check",
+                            Collections.singletonMap("zone", i % 3 == 0 ? "a" : "b")))
+                    .registrationTimeUTC(1000 + i)
+                    .build();
+            typedDiscovery.registerService(instance);
+            instances.add(instance);
+        }
+        await(s -> s.size() == N * N);
+
+        for (CatalogQuery query : Arrays.asList(
+                new CatalogQuery().namePrefix("Worker"),
+                new CatalogQuery().version("2.0.0"),
+                new CatalogQuery().metadata("zone", "a").namePrefix("Master"),
+                new CatalogQuery().host("10.0.0.7"),
+                new CatalogQuery().host("host-1"),
+                new CatalogQuery().registeredBetween(1003, 1010),
+                new CatalogQuery().version("1.0.0").metadata("zone", "b").registeredBetween(1010, 1020),
+                new CatalogQuery().version("3.0.0"),
+                new CatalogQuery())) {
+            List<model.util.ServiceInstance> expected = query.filter(catalog.getSnapshot());
+            assertEquals(expected.size(), catalog.query(query).size());
+            assertEquals(expected.toString(), catalog.query(query).toString());
+        }
+        assertEquals(1, catalog.query(new CatalogQuery().host("host-1")).size());
+        assertEquals(N, catalog.query(new CatalogQuery().version("2.0.0")).size());
+
+        // Unregistered instances leave the indexes.
+        typedDiscovery.unregisterService(instances.get(0));
+        await(s -> s.size() == N * N - 1);
+        assertEquals(N - 1, catalog.query(new CatalogQuery().version("2.0.0")).size());
+        assertTrue(catalog.query(new CatalogQuery().host("host-0")).isEmpty());
+
+        typedDiscovery.close();
+    }
+
+    private static ServiceInstance<Object> worker(final String name, final int port) throws Exception {
+        return ServiceInstance.builder()
+                .name(name)
+                .address("localhost")
+                .port(port)
+                .payload("[1.0.0] [Check]")
+                .build();
+    }
+
+    private CatalogSnapshot await(final Predicate<CatalogSnapshot> condition) throws InterruptedException {
+        return await(catalog, condition);
+    }
+
+    private CatalogSnapshot await(final Catalog catalog, final Predicate<CatalogSnapshot> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            CatalogSnapshot snapshot = catalog.getSnapshot();
+            if (catalog.isInitialized() && condition.test(snapshot)) {
+                return snapshot;
+            }
+            Thread.sleep(10);
+        }
+        fail("Catalog did not reach expected state");
+        return null;
+    }
+}
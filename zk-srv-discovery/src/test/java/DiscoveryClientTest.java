@@ -0,0 +1,147 @@
+import model.Registration;
+import model.RegistrySession;
+import model.client.DiscoveryClient;
+import model.client.Lease;
+import model.client.LoadBalancer;
+import model.client.LoadBalancers;
+import model.util.InstancePayloadSerializer;
+import model.util.ServiceInstance;
+import org.apache.curator.test.TestingServer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static model.Registry.instance;
+import static org.junit.Assert.*;
+
+public class DiscoveryClientTest {
+
+    private static final String PATH = "/zk-srv-discovery";
+    private static final long TIMEOUT_MS = 5000;
+
+    private static final List<ServiceInstance> INSTANCES = Arrays.asList(
+            new ServiceInstance("Worker", "host-1", 1, "[1] []", "", "a"),
+            new ServiceInstance("Worker", "host-2", 2, "[1] []", "", "b"),
+            new ServiceInstance("Worker", "host-3", 3, "[1] []", "", "c"));
+
+    @Test
+    public void testRoundRobinVisitsAll() {
+        LoadBalancer roundRobin = LoadBalancers.roundRobin();
+        List<String> chosen = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            chosen.add(roundRobin.choose("Worker", INSTANCES, instance -> 0).getId());
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "a", "b", "c"), chosen);
+    }
+
+    @Test
+    public void testLoadAwareStrategiesAvoidBusyInstances() {
+        Map<String, Integer> outstanding = new HashMap<>();
+        outstanding.put("a", 5);
+        outstanding.put("b", 0);
+        outstanding.put("c", 5);
+
+        assertEquals("b", LoadBalancers.leastOutstanding()
+                .choose("Worker", INSTANCES, instance -> outstanding.get(instance.getId())).getId());
+
+        // Two distinct choices, so the busiest one is never chosen.
+        outstanding.put("a", 0);
+        outstanding.put("b", 1);
+        outstanding.put("c", 9);
+        LoadBalancer powerOfTwo = LoadBalancers.powerOfTwoChoices();
+        for (int i = 0; i < 100; i++) {
+            assertNotEquals("c", powerOfTwo.choose("Worker", INSTANCES, instance -> outstanding.get(instance.getId())).getId());
+        }
+    }
+
+    @Test
+    public void testStickyKeysMoveOnlyFromRemovedInstance() {
+        Map<String, String> pinned = new HashMap<>();
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            String id = LoadBalancers.sticky("user" + i, INSTANCES).getId();
+            pinned.put("user" + i, id);
+            used.add(id);
+        }
+        assertEquals(3, used.size());
+
+        List<ServiceInstance> withoutB = Arrays.asList(INSTANCES.get(0), INSTANCES.get(2));
+        pinned.forEach((key, id) -> {
+            if (!id.equals("b")) {
+                assertEquals(id, LoadBalancers.sticky(key, withoutB).getId());
+            }
+        });
+    }
+
+    @Test
+    public void testClientResolvesRegisteredInstances() throws Exception {
+        try (TestingServer ts = new TestingServer();
+             RegistrySession session = new RegistrySession(ts.getConnectString(), PATH, InstancePayloadSerializer.binary(), 0).start()) {
+
+            Registration first = session.register(instance("Worker", 18005, "1.0.0", "first"));
+            session.register(instance("Worker", 18006, "1.0.0", "second"));
+
+            DiscoveryClient client = new DiscoveryClient(ts.getConnectString(), LoadBalancers.leastOutstanding());
+            assertTrue(client.start());
+            await(client, 2);
+
+            Lease lease = client.lease("Worker");
+            // The other one is less loaded now.
+            assertNotEquals(lease.getInstance().getId(), client.resolve("Worker").getId());
+            lease.close();
+
+            assertNull(client.resolve("Nothing"));
+
+            first.close();
+            await(client, 1);
+            assertEquals(18006, client.resolve("Worker", "user").getPort());
+
+            client.close();
+        }
+    }
+
+    @Test
+    public void testLeaseOutlivesRemoval() throws Exception {
+        try (TestingServer ts = new TestingServer();
+             RegistrySession session = new RegistrySession(ts.getConnectString(), PATH, InstancePayloadSerializer.binary(), 0).start()) {
+
+            session.register(instance("Worker", 18005, "1.0.0", "first"));
+            session.register(instance("Worker", 18006, "1.0.0", "second"));
+
+            DiscoveryClient client = new DiscoveryClient(ts.getConnectString(), LoadBalancers.leastOutstanding());
+            assertTrue(client.start());
+            await(client, 2);
+
+            // The leased instance goes away and comes back while its request is still outstanding.
+            Lease lease = client.lease("Worker");
+            Registration leased = session.getRegistrations().stream()
+                    .filter(registration -> registration.getInstance().getId().equals(lease.getInstance().getId()))
+                    .findFirst().get();
+            leased.close();
+            await(client, 1);
+            session.register(leased.getInstance());
+            await(client, 2);
+
+            for (int i = 0; i < 10; i++) {
+                assertNotEquals(lease.getInstance().getId(), client.resolve("Worker").getId());
+            }
+            lease.close();
+
+            client.close();
+        }
+    }
+
+    private static void await(final DiscoveryClient client, final int instances) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (client.getInstances("Worker").size() != instances) {
+            assertTrue("Client did not see " + instances + " instances", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.curator.test.TestingServer;
 import org.apache.log4j.Level;
@@ -7,18 +9,31 @@ import org.junit.contrib.java.lang.system.EnvironmentVariables;
 
 import javax.validation.constraints.NotNull;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import static model.Registry.register;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class DiscoveryTest {
 
@@ -55,6 +70,8 @@ public class DiscoveryTest {
     private static final String MOCK_SERVICE_NAME = "Worker_1";
     private static final String GET_ALL = "getAll";
     private static final int N = 10;
+    private static final int CATALOG_SPARE_TIME = 500;
+    private static final String INDEX_HEADER = "X-Catalog-Index";
 
     // As return from getAll verb request
 
@@ -89,7 +106,29 @@ public class DiscoveryTest {
         final Thread discoveryThread = new Thread(new Starter());
         discoveryThread.setName("Discovery Thread");
         discoveryThread.start();
-        Thread.sleep(2000); // Spare time for discovery service to start;
+        awaitConnected();
+    }
+
+    /**
+     * Waits for the discovery service to listen, and to be connected to zk (/health).
+     */
+    private static void awaitConnected() throws Exception {
+        URL health = new URL("http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/health");
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) health.openConnection();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+                    if ("IMOK".equals(reader.readLine())) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // Not listening yet.
+            }
+            Thread.sleep(50);
+        }
+        fail("Discovery service did not start");
     }
 
     @AfterClass
@@ -137,6 +176,8 @@ public class DiscoveryTest {
             workers.add(worker.getName() + i);
         }
 
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for the catalog to see the registrations.
+
         // make GET request for all services.
         url = "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/" + GET_ALL;
 
@@ -160,6 +201,180 @@ public class DiscoveryTest {
         inputStream.close();
     }
 
+    @Test
+    public void testGetAllServiceVerbJson() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+
+        assertEquals(register(ts.getConnectString(),
+                worker.getName(),
+                worker.getPort(),
+                worker.getVersion(),
+                "Json"), SUCCESS);
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for the catalog to see the registration.
+
+        url = "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/" + GET_ALL;
+
+        openConnection = (HttpURLConnection) new URL(url).openConnection();
+        openConnection.setRequestMethod("GET");
+        openConnection.setRequestProperty("Accept", "application/json");
+        assertEquals("OK", openConnection.getResponseMessage());
+        assertTrue(openConnection.getContentType().startsWith("application/json"));
+
+        JsonNode services = new ObjectMapper().readTree(openConnection.getInputStream()).get("services");
+        JsonNode instances = services.get(worker.getName());
+
+        assertTrue(instances.size() > 0);
+        assertEquals(worker.getName(), instances.get(0).get("name").asText());
+        assertEquals(worker.getPort(), instances.get(0).get("port").asInt());
+    }
+
+    @Test
+    public void testGetAllNotModified() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for previous registrations to reach the catalog.
+
+        url = "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/" + GET_ALL;
+        obj = new URL(url);
+
+        openConnection = buildConnection(obj);
+        String eTag = openConnection.getHeaderField("ETag");
+        assertNotNull(eTag);
+        assertVaries(openConnection);
+
+        openConnection = (HttpURLConnection) obj.openConnection();
+        openConnection.setRequestMethod("GET");
+        openConnection.setRequestProperty("If-None-Match", eTag);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, openConnection.getResponseCode());
+        assertVaries(openConnection);
+
+        // Another representation has another tag.
+        openConnection = (HttpURLConnection) obj.openConnection();
+        openConnection.setRequestMethod("GET");
+        openConnection.setRequestProperty("Accept", "application/json");
+        openConnection.setRequestProperty("If-None-Match", eTag);
+        assertEquals(HttpURLConnection.HTTP_OK, openConnection.getResponseCode());
+
+        // So does another content encoding.
+        openConnection = (HttpURLConnection) obj.openConnection();
+        openConnection.setRequestMethod("GET");
+        openConnection.setRequestProperty("Accept-Encoding", "gzip");
+        openConnection.setRequestProperty("If-None-Match", eTag);
+        assertEquals(HttpURLConnection.HTTP_OK, openConnection.getResponseCode());
+        assertEquals("gzip", openConnection.getHeaderField("Content-Encoding"));
+        String gzipTag = openConnection.getHeaderField("ETag");
+        assertNotEquals(eTag, gzipTag);
+
+        openConnection = (HttpURLConnection) obj.openConnection();
+        openConnection.setRequestMethod("GET");
+        openConnection.setRequestProperty("Accept-Encoding", "gzip");
+        openConnection.setRequestProperty("If-None-Match", gzipTag);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, openConnection.getResponseCode());
+    }
+
+    @Test
+    public void testBlockingQuery() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for previous registrations to reach the catalog.
+
+        url = "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/" + MOCK_SERVICE_NAME;
+        long index = Long.parseLong(buildConnection(new URL(url)).getHeaderField(INDEX_HEADER));
+
+        // Nothing changes, answered when the wait elapses.
+        long start = System.currentTimeMillis();
+        HttpURLConnection timedOut = buildConnection(new URL(url + "?index=" + index + "&wait=1s"));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertEquals(index, Long.parseLong(timedOut.getHeaderField(INDEX_HEADER)));
+
+        // Answered as soon as the service changes.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<HttpURLConnection> blocked = executor.submit(() ->
+                buildConnection(new URL(url + "?index=" + index + "&wait=30s")));
+        Thread.sleep(CATALOG_SPARE_TIME);
+        assertFalse(blocked.isDone());
+
+        assertEquals(register(ts.getConnectString(),
+                worker.getName(),
+                worker.getPort(),
+                worker.getVersion(),
+                "Blocking"), SUCCESS);
+
+        assertTrue(Long.parseLong(blocked.get(10, TimeUnit.SECONDS).getHeaderField(INDEX_HEADER)) > index);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testEventStream() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+        final String serviceName = "Events_1";
+
+        url = "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/events";
+
+        // Reads the stream until the registration shows up.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> added = executor.submit(() -> {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestProperty("Accept", "text/event-stream");
+            connection.setReadTimeout(10000);
+            BufferedReader in = getInputStream(connection);
+            String event = null;
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("event:")) {
+                    event = line.substring("event:".length()).trim();
+                } else if (line.startsWith("data:") && line.contains(serviceName)) {
+                    in.close();
+                    return event;
+                }
+            }
+            return null;
+        });
+        Thread.sleep(CATALOG_SPARE_TIME);
+
+        assertEquals(register(ts.getConnectString(),
+                serviceName,
+                worker.getPort(),
+                worker.getVersion(),
+                "Events"), SUCCESS);
+
+        assertEquals("added", added.get(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testEventStreamResetOnUnknownId() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for previous registrations to reach the catalog.
+
+        // Entity tags and event ids share the epoch of the process, "{epoch}-{index}-text".
+        HttpURLConnection getAll = buildConnection(
+                new URL("http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/" + GET_ALL));
+        String epoch = getAll.getHeaderField("ETag").replace("\"", "").split("-")[0];
+        long index = Long.parseLong(getAll.getHeaderField(INDEX_HEADER));
+
+        // Ahead of this process, e.g. seen before a restart.
+        assertEquals("reset", firstEvent(epoch + "-" + (index + 1000)));
+        // From another process.
+        assertEquals("reset", firstEvent("0-" + index));
+    }
+
+    /**
+     * @return Name of the first event sent to a client resuming from given event id.
+     */
+    private String firstEvent(final String lastEventId) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/events").openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        connection.setRequestProperty("Last-Event-ID", lastEventId);
+        connection.setReadTimeout(5000);
+        try (BufferedReader in = getInputStream(connection)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("event:")) {
+                    return line.substring("event:".length()).trim();
+                }
+            }
+        }
+        return null;
+    }
+
     @Test
     public void testHealthVerb() throws Exception {
         assertTrue(RESTfulServiceIsUp());
@@ -171,6 +386,151 @@ public class DiscoveryTest {
         assertResponse(HEALTH_MSG, inputStream, HEALTH_INDEX, "");
     }
 
+    @Test
+    public void testGetAllPaged() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(register(ts.getConnectString(), "Paged_" + i, 18200 + i, "1.0.0", "Page"), SUCCESS);
+        }
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for the catalog to see the registrations.
+
+        String base = "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/" + GET_ALL;
+        int total = 0;
+        for (JsonNode instances : readJson(base).get("services")) {
+            total += instances.size();
+        }
+
+        List<String> paged = new ArrayList<>();
+        String next = null;
+        String first = null;
+        do {
+            JsonNode page = readJson(base + "?limit=2" + (next == null ? "" : "&cursor=" + next));
+            int size = 0;
+            for (JsonNode instances : page.get("services")) {
+                for (JsonNode instance : instances) {
+                    paged.add(instance.get("id").asText());
+                    size++;
+                }
+            }
+            assertTrue(size <= 2);
+            next = page.has("next") ? page.get("next").asText() : null;
+            first = first == null ? next : first;
+
+            // Registered while paging, not seen by the next pages.
+            register(ts.getConnectString(), "Paged_" + paged.size(), 18300, "1.0.0", "Late");
+        } while (next != null);
+
+        assertEquals(total, paged.size());
+        assertEquals(total, new HashSet<>(paged).size());
+
+        String epoch = first.substring(0, first.indexOf('-'));
+        openConnection = (HttpURLConnection) new URL(base + "?cursor=" + epoch + "-999999.0").openConnection();
+        assertEquals(410, openConnection.getResponseCode());
+
+        // Cursor of another process (restarted, or another replica): same version, another epoch.
+        openConnection = (HttpURLConnection) new URL(base + "?cursor=0" + first.substring(epoch.length())).openConnection();
+        assertEquals(410, openConnection.getResponseCode());
+        openConnection = (HttpURLConnection) new URL(base + "?cursor=" + first).openConnection();
+        assertEquals(HttpURLConnection.HTTP_OK, openConnection.getResponseCode());
+        openConnection = (HttpURLConnection) new URL(base + "?cursor=first").openConnection();
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, openConnection.getResponseCode());
+    }
+
+    @Test
+    public void testGetAllCompressed() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+        assertEquals(register(ts.getConnectString(), "Compressed_1", 18400, "1.0.0", "Gzip"), SUCCESS);
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for the catalog to see the registration.
+
+        URL getAll = new URL("http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/" + GET_ALL);
+        for (int attempt = 0; ; attempt++) {
+            HttpURLConnection plain = (HttpURLConnection) getAll.openConnection();
+            HttpURLConnection gzip = (HttpURLConnection) getAll.openConnection();
+            gzip.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            HttpURLConnection deflate = (HttpURLConnection) getAll.openConnection();
+            deflate.setRequestProperty("Accept-Encoding", "deflate");
+
+            String text = new String(readBytes(plain.getInputStream()), "UTF-8");
+            String gunzipped = new String(readBytes(new GZIPInputStream(gzip.getInputStream())), "UTF-8");
+            String inflated = new String(readBytes(new InflaterInputStream(deflate.getInputStream())), "UTF-8");
+
+            assertEquals("gzip", gzip.getHeaderField("Content-Encoding"));
+            assertEquals("deflate", deflate.getHeaderField("Content-Encoding"));
+            assertTrue(gzip.getHeaderField("Vary").contains("Accept-Encoding"));
+            assertTrue(text.contains("Compressed_1"));
+
+            // Compare bodies of the same catalog version only, other tests may be registering.
+            String index = plain.getHeaderField(INDEX_HEADER);
+            if (index.equals(gzip.getHeaderField(INDEX_HEADER)) && index.equals(deflate.getHeaderField(INDEX_HEADER))) {
+                assertEquals(text, gunzipped);
+                assertEquals(text, inflated);
+                break;
+            }
+            assertTrue(attempt < 5);
+        }
+    }
+
+    private byte[] readBytes(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private JsonNode readJson(final String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Accept", "application/json");
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        return new ObjectMapper().readTree(connection.getInputStream());
+    }
+
+    @Test
+    public void testQueryVerb() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+        assertEquals(register(ts.getConnectString(), "Queried_1", 18100, "7.7.7", "Query"), SUCCESS);
+        assertEquals(register(ts.getConnectString(), "Queried_2", 18101, "7.7.8", "Query"), SUCCESS);
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for the catalog to see the registrations.
+
+        url = "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/query?prefix=Queried&version=7.7.7";
+        openConnection = (HttpURLConnection) new URL(url).openConnection();
+        openConnection.setRequestProperty("Accept", "application/json");
+        assertEquals(HttpURLConnection.HTTP_OK, openConnection.getResponseCode());
+
+        JsonNode instances = new ObjectMapper().readTree(openConnection.getInputStream());
+        assertEquals(1, instances.size());
+        assertEquals("Queried_1", instances.get(0).get("name").asText());
+        assertEquals("7.7.7", instances.get(0).get("version").asText());
+
+        openConnection = (HttpURLConnection) new URL(url + "&from=not-a-time").openConnection();
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, openConnection.getResponseCode());
+
+        openConnection = (HttpURLConnection) new URL(url + "&from=200&to=100").openConnection();
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, openConnection.getResponseCode());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        assertTrue(RESTfulServiceIsUp());
+        buildConnection(new URL("http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/health"));
+
+        url = "http://" + inetAddress.getHostAddress() + ":8080/v1/metrics";
+        obj = new URL(url);
+        openConnection = buildConnection(obj);
+
+        StringBuilder scrape = new StringBuilder();
+        inputStream = getInputStream(openConnection);
+        for (String line = inputStream.readLine(); line != null; line = inputStream.readLine()) {
+            scrape.append(line).append('\n');
+        }
+        inputStream.close();
+
+        assertTrue(scrape.toString().contains("http_server_requests_seconds_count{"));
+        assertTrue(scrape.toString().contains("uri=\"/zk-srv-discovery/health\""));
+    }
+
     @Test
     public void testGetServiceVerb() throws Exception {
         assertTrue(RESTfulServiceIsUp());
@@ -185,6 +545,8 @@ public class DiscoveryTest {
             );
         }
 
+        Thread.sleep(CATALOG_SPARE_TIME); // Spare time for the catalog to see the registrations.
+
         // make GET request for a single service.
         url = "http://" + inetAddress.getHostAddress() + ":8080/v1/zk-srv-discovery/" + MOCK_SERVICE_NAME;
 
@@ -217,6 +579,20 @@ public class DiscoveryTest {
         Assert.assertThat(serviceName, is(response[responseIndex]));
     }
 
+    /**
+     * Asserts the response varies by Accept (text or JSON) and Accept-Encoding.
+     */
+    private static void assertVaries(final HttpURLConnection connection) {
+        List<String> vary = new ArrayList<>();
+        for (String header : connection.getHeaderFields().getOrDefault("Vary", new ArrayList<>())) {
+            for (String value : header.split(",")) {
+                vary.add(value.trim());
+            }
+        }
+        assertTrue(vary.toString(), vary.contains("Accept"));
+        assertTrue(vary.toString(), vary.contains("Accept-Encoding"));
+    }
+
     private boolean RESTfulServiceIsUp() throws Exception {
         String url = "http://" + inetAddress.getHostAddress() + ":8080/v1/application.wadl";
         URL obj = new URL(url);
@@ -0,0 +1,132 @@
+import com.sun.net.httpserver.HttpServer;
+import model.health.HealthProber;
+import model.util.CatalogJsonWriter;
+import model.util.ServiceInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HealthProberTest {
+
+    private ServerSocket listening;
+    private int closedPort;
+    private HealthProber prober;
+    private volatile Map<String, Collection<ServiceInstance>> services;
+
+    @Before
+    public void setUp() throws Exception {
+        listening = new ServerSocket(0);
+        try (ServerSocket closed = new ServerSocket(0)) {
+            closedPort = closed.getLocalPort();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (prober != null) {
+            prober.close();
+        }
+        listening.close();
+    }
+
+    @Test
+    public void testTcpProbes() throws Exception {
+        ServiceInstance up = instance("Up", listening.getLocalPort(), "up");
+        ServiceInstance down = instance("Down", closedPort, "down");
+        services = catalog(up, down);
+        prober = new HealthProber(this::getServices, 100, 1000, 0.2, null, 16).start();
+
+        awaitHealth(up, true);
+        awaitHealth(down, false);
+        assertTrue(prober.getVersion() >= 2);
+
+        // Gone from the catalog, not probed anymore.
+        services = catalog(up);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (prober.isHealthy(down) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNull(prober.isHealthy(down));
+    }
+
+    @Test
+    public void testHttpProbes() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders("/ready".equals(exchange.getRequestURI().getPath()) ? 200 : 503, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            ServiceInstance ready = instance("Http", server.getAddress().getPort(), "http");
+            ServiceInstance tcpOnly = instance("Tcp", listening.getLocalPort(), "tcp");
+            services = catalog(ready, tcpOnly);
+            prober = new HealthProber(this::getServices, 100, 500, 0.2, "/ready", 16).start();
+
+            awaitHealth(ready, true);
+            // Accepts connections, never answers.
+            awaitHealth(tcpOnly, false);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHealthyField() throws Exception {
+        ServiceInstance up = instance("Up", 1, "up");
+        ServiceInstance unknown = instance("Unknown", 2, "unknown");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CatalogJsonWriter.writeInstances(out, Arrays.asList(up, unknown), i -> i == up ? Boolean.TRUE : null);
+        String json = out.toString("UTF-8");
+        assertTrue(json.contains("\"healthy\":true"));
+        assertEquals(1, json.split("healthy").length - 1);
+
+        out.reset();
+        CatalogJsonWriter.writeInstances(out, Collections.singletonList(up));
+        assertFalse(out.toString("UTF-8").contains("healthy"));
+    }
+
+    private Map<String, ? extends Collection<ServiceInstance>> getServices() {
+        return services;
+    }
+
+    private void awaitHealth(final ServiceInstance instance, final boolean healthy) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (Boolean.valueOf(healthy).equals(prober.isHealthy(instance))) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        fail(instance.getServiceName() + " not probed " + (healthy ? "healthy" : "unhealthy"));
+    }
+
+    private static ServiceInstance instance(final String name, final int port, final String id) {
+        return new ServiceInstance(name, "localhost 127.0.0.1", port, "[1.0.0] []", "01/02/2018 10:11:12", id);
+    }
+
+    private static Map<String, Collection<ServiceInstance>> catalog(final ServiceInstance... instances) {
+        Map<String, Collection<ServiceInstance>> services = new TreeMap<>();
+        for (ServiceInstance instance : instances) {
+            services.computeIfAbsent(instance.getServiceName(), name -> new ArrayList<>()).add(instance);
+        }
+        return services;
+    }
+}
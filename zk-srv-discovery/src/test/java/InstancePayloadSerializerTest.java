@@ -0,0 +1,89 @@
+import model.util.InstancePayload;
+import model.util.InstancePayloadSerializer;
+import org.apache.curator.x.discovery.ServiceInstance;
+import org.apache.curator.x.discovery.UriSpec;
+import org.apache.curator.x.discovery.details.JsonInstanceSerializer;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binary instances must round trip, and instances registered as JSON must still be read.
+ */
+public class InstancePayloadSerializerTest {
+
+    private final InstancePayloadSerializer serializer = InstancePayloadSerializer.binary();
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("zone", "eu-1");
+        metadata.put("weight", "10");
+
+        ServiceInstance<InstancePayload> instance = ServiceInstance.<InstancePayload>builder()
+                .name("Worker_1")
+                .address("host-1 10.0.0.1")
+                .port(18005)
+                .payload(new InstancePayload("1.0.0", "Check", metadata))
+                .uriSpec(new UriSpec("{scheme}://{address}:{port}"))
+                .build();
+
+        byte[] bytes = serializer.serialize(instance);
+        ServiceInstance<InstancePayload> read = serializer.deserialize(bytes);
+
+        assertEquals(instance, read);
+        assertEquals(metadata, read.getPayload().getMetadata());
+        assertEquals("[1.0.0] [Check]", read.getPayload().toString());
+        assertTrue(bytes.length < new JsonInstanceSerializer<>(Object.class).serialize(legacy(instance)).length);
+    }
+
+    @Test
+    public void testReadsLegacyJson() throws Exception {
+        ServiceInstance<Object> instance = ServiceInstance.builder()
+                .name("Worker_1")
+                .address("host-1 10.0.0.1")
+                .port(18005)
+                .payload("[1.0.0] [Check]")
+                .build();
+
+        ServiceInstance<InstancePayload> read = serializer.deserialize(new JsonInstanceSerializer<>(Object.class).serialize(instance));
+
+        assertEquals(instance.getId(), read.getId());
+        assertEquals("1.0.0", read.getPayload().getVersion());
+        assertEquals("Check", read.getPayload().getDescription());
+        assertEquals("[1.0.0] [Check]", read.getPayload().toString());
+
+        // Written by legacyJson(), read back by older servers as the same string payload.
+        byte[] legacyBytes = InstancePayloadSerializer.legacyJson().serialize(read);
+        assertEquals("[1.0.0] [Check]", new JsonInstanceSerializer<>(Object.class).deserialize(legacyBytes).getPayload());
+    }
+
+    @Test
+    public void testNullDescription() throws Exception {
+        InstancePayload payload = new InstancePayload(null, null);
+        assertEquals(payload, new InstancePayload(null, null));
+        assertEquals(payload.hashCode(), new InstancePayload(null, null).hashCode());
+        assertNotEquals(payload, new InstancePayload(null, "Check"));
+
+        ServiceInstance<InstancePayload> instance = ServiceInstance.<InstancePayload>builder()
+                .name("Worker_1")
+                .payload(payload)
+                .build();
+        assertEquals(instance, serializer.deserialize(serializer.serialize(instance)));
+    }
+
+    private static ServiceInstance<Object> legacy(final ServiceInstance<InstancePayload> instance) throws Exception {
+        return ServiceInstance.builder()
+                .name(instance.getName())
+                .id(instance.getId())
+                .address(instance.getAddress())
+                .port(instance.getPort())
+                .payload(instance.getPayload().toString())
+                .registrationTimeUTC(instance.getRegistrationTimeUTC())
+                .uriSpec(instance.getUriSpec())
+                .build();
+    }
+}
@@ -1,6 +1,13 @@
+import model.Registration;
+import model.RegistrationResult;
+import model.RegistrySession;
+import model.util.InstancePayload;
+import model.util.InstancePayloadSerializer;
+import model.util.Liveness;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.utils.ZKPaths;
 import org.apache.curator.test.TestingServer;
 import org.apache.curator.x.discovery.ServiceDiscovery;
 import org.apache.curator.x.discovery.ServiceDiscoveryBuilder;
@@ -12,11 +19,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static model.Registry.instance;
 import static model.Registry.register;
+import static model.Registry.registerAll;
+import static model.Registry.registerService;
+import static model.Registry.registerServiceAsync;
+import static model.Registry.session;
 import static model.Registry.unregister;
 import static org.junit.Assert.*;
 
@@ -79,16 +93,18 @@ public class RegistryTest {
         assertNotNull(client.checkExists().forPath(PATH)); //returns null if path not created.
 
         //Get registered services.
-        ServiceDiscovery<Object> serviceDiscovery = ServiceDiscoveryBuilder.builder(Object.class)
+        ServiceDiscovery<InstancePayload> serviceDiscovery = ServiceDiscoveryBuilder.builder(InstancePayload.class)
                 .client(client)
                 .basePath(PATH)
+                .serializer(InstancePayloadSerializer.binary())
                 .build();
 
         Collection<String> fromZK = serviceDiscovery.queryForNames();
 
-        Collection<ServiceInstance<Object>> serviceInstances = serviceDiscovery.queryForInstances("Test0");
+        Collection<ServiceInstance<InstancePayload>> serviceInstances = serviceDiscovery.queryForInstances("Test0");
 
         assertFalse(serviceInstances.isEmpty());
+        assertEquals("[1.0.00] [0]", serviceInstances.iterator().next().getPayload().toString());
 
         assertTrue(fromZK.containsAll(servicesNames));
 
@@ -110,6 +126,168 @@ public class RegistryTest {
                 "Hello"), SUCCESS);
     }
 
+    @Test
+    public void testRegistrationsShareSession() throws Exception {
+
+        Registration first = registerService(ts1.getConnectString(), "Shared", 1900, "1.0.0", "first");
+        Registration second = registerService(ts1.getConnectString(), "Shared", 1901, "1.0.0", "second");
+
+        assertSame(first.getSession(), second.getSession());
+        assertSame(session(ts1.getConnectString()), first.getSession());
+
+        CuratorFramework client = CuratorFrameworkFactory.newClient(
+                ts1.getConnectString(),
+                new ExponentialBackoffRetry(1000, 3)
+        );
+        client.start();
+
+        ServiceDiscovery<InstancePayload> serviceDiscovery = ServiceDiscoveryBuilder.builder(InstancePayload.class)
+                .client(client)
+                .basePath(PATH)
+                .serializer(InstancePayloadSerializer.binary())
+                .build();
+
+        assertEquals(2, serviceDiscovery.queryForInstances("Shared").size());
+
+        //Only the first one is gone.
+        first.close();
+
+        Collection<ServiceInstance<InstancePayload>> serviceInstances = serviceDiscovery.queryForInstances("Shared");
+        assertEquals(1, serviceInstances.size());
+        assertEquals(second.getInstance().getId(), serviceInstances.iterator().next().getId());
+
+        client.close();
+    }
+
+    @Test
+    public void testRegisterAllInBatches() throws Exception {
+
+        List<ServiceInstance<InstancePayload>> instances = new ArrayList<>();
+        for (int i = 0; i < 250; ++i) {
+            instances.add(instance("Batch" + (i % 5), 2000 + i, "1.0.0", Integer.toString(i)));
+        }
+
+        List<RegistrationResult> results = registerAll(ts2.getConnectString(), instances);
+
+        assertEquals(instances.size(), results.size());
+        for (RegistrationResult result : results) {
+            assertTrue(result.isSuccess());
+            assertNotNull(result.getRegistration());
+        }
+
+        CuratorFramework client = CuratorFrameworkFactory.newClient(
+                ts2.getConnectString(),
+                new ExponentialBackoffRetry(1000, 3)
+        );
+        client.start();
+
+        ServiceDiscovery<InstancePayload> serviceDiscovery = ServiceDiscoveryBuilder.builder(InstancePayload.class)
+                .client(client)
+                .basePath(PATH)
+                .serializer(InstancePayloadSerializer.binary())
+                .build();
+
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(50, serviceDiscovery.queryForInstances("Batch" + i).size());
+        }
+
+        client.close();
+    }
+
+    @Test
+    public void testRegisterAsync() throws Exception {
+
+        Registration registration = registerServiceAsync(ts1.getConnectString(), "Async", 2500, "1.0.0", "async")
+                .get(10, TimeUnit.SECONDS);
+
+        CuratorFramework client = CuratorFrameworkFactory.newClient(
+                ts1.getConnectString(),
+                new ExponentialBackoffRetry(1000, 3)
+        );
+        client.start();
+
+        ServiceDiscovery<InstancePayload> serviceDiscovery = ServiceDiscoveryBuilder.builder(InstancePayload.class)
+                .client(client)
+                .basePath(PATH)
+                .serializer(InstancePayloadSerializer.binary())
+                .build();
+
+        ServiceInstance<InstancePayload> fromZK = serviceDiscovery.queryForInstance("Async", registration.getInstance().getId());
+        assertNotNull(fromZK);
+        assertEquals(2500, (int) fromZK.getPort());
+
+        registration.close();
+        assertNull(serviceDiscovery.queryForInstance("Async", registration.getInstance().getId()));
+
+        client.close();
+    }
+
+    @Test
+    public void testTtlRegistrationHeartbeats() throws Exception {
+
+        RegistrySession session = new RegistrySession(ts2.getConnectString(), PATH, InstancePayloadSerializer.binary(), 300).start();
+        Registration registration = session.register(instance("Ttl", 2600, "1.0.0", "ttl"));
+
+        CuratorFramework client = CuratorFrameworkFactory.newClient(
+                ts2.getConnectString(),
+                new ExponentialBackoffRetry(1000, 3)
+        );
+        client.start();
+
+        String liveness = ZKPaths.makePath(Liveness.path(PATH), "Ttl", registration.getInstance().getId());
+        long first = awaitHeartbeat(client, liveness, 0);
+        long second = awaitHeartbeat(client, liveness, first);
+        assertTrue(second > first);
+
+        session.close();
+        assertNull(client.checkExists().forPath(liveness));
+        client.close();
+    }
+
+    @Test
+    public void testReconnectKeepsOwnNodes() throws Exception {
+
+        TestingServer ts = new TestingServer();
+        RegistrySession session = new RegistrySession(ts.getConnectString(), PATH, InstancePayloadSerializer.legacyJson(), 0).start();
+        Registration registration = session.register(instance("Reconnect", 2700, "1.0.0", "reconnect"));
+        String instancePath = ZKPaths.makePath(PATH, "Reconnect", registration.getInstance().getId());
+
+        CuratorFramework client = CuratorFrameworkFactory.newClient(
+                ts.getConnectString(),
+                new ExponentialBackoffRetry(1000, 3)
+        );
+        client.start();
+        long created = client.checkExists().forPath(instancePath).getCzxid();
+
+        // Same session after the restart: the instance is not deleted and created again.
+        ts.restart();
+        assertTrue(client.getZookeeperClient().blockUntilConnectedOrTimedOut());
+        Thread.sleep(2000);
+        assertEquals(created, client.checkExists().forPath(instancePath).getCzxid());
+
+        session.close();
+        client.close();
+        ts.close();
+    }
+
+    /**
+     * @return Time of the first heartbeat after given time.
+     */
+    private long awaitHeartbeat(final CuratorFramework client, final String liveness, final long after) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (client.checkExists().forPath(liveness) != null) {
+                long timestamp = ByteBuffer.wrap(client.getData().forPath(liveness)).getLong();
+                if (timestamp > after) {
+                    return timestamp;
+                }
+            }
+            Thread.sleep(50);
+        }
+        fail("No heartbeat");
+        return 0;
+    }
+
     private class MockService {
         private String name;
         private int port;
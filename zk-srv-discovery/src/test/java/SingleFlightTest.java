@@ -0,0 +1,107 @@
+import model.util.SingleFlight;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShareOneFlight() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test", 10000);
+        CompletableFuture<String> zk = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(flight.execute("all", () -> {
+                calls.incrementAndGet();
+                return zk;
+            }));
+        }
+        CompletableFuture<String> other = flight.execute("other", () -> CompletableFuture.completedFuture("other"));
+
+        assertEquals(1, calls.get());
+        assertEquals("other", other.get());
+        assertFalse(results.get(0).isDone());
+
+        zk.complete("instances");
+        for (CompletableFuture<String> result : results) {
+            assertEquals("instances", result.get());
+        }
+        assertEquals(0, flight.inFlight());
+
+        // Completed flights are forgotten.
+        flight.execute("all", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("again");
+        });
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testStuckFlightIsTakenOver() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test", 50);
+        CompletableFuture<String> stuck = flight.execute("all", CompletableFuture::new);
+
+        Thread.sleep(100);
+        CompletableFuture<String> fresh = flight.execute("all", () -> CompletableFuture.completedFuture("fresh"));
+
+        assertNotSame(stuck, fresh);
+        assertEquals("fresh", fresh.get());
+        assertFalse(stuck.isDone());
+    }
+
+    @Test
+    public void testBlockingCallsShareOneRender() throws Exception {
+        SingleFlight<String, byte[]> flight = new SingleFlight<>("test", 10000);
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger renders = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<byte[]>> results = new ArrayList<>();
+        results.add(executor.submit(() -> flight.call("table", () -> {
+            renders.incrementAndGet();
+            rendering.countDown();
+            await(release);
+            return new byte[]{1};
+        })));
+        rendering.await();
+        for (int i = 0; i < 3; i++) {
+            results.add(executor.submit(() -> flight.call("table", () -> {
+                renders.incrementAndGet();
+                return new byte[]{2};
+            })));
+        }
+
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<byte[]> result : results) {
+            assertSame(results.get(0).get(), result.get());
+        }
+        assertEquals(1, renders.get());
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import model.util.ServiceInstance;
+import model.util.TableRenderer;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The text table is scraped by clients, output must stay byte-identical
+ * to the String.format based rendering it replaced.
+ */
+public class TableRendererTest {
+
+    private static final ServiceInstance WORKER = new ServiceInstance("Worker_1",
+            "host-1 10.0.0.1", 18005, "[1.0.0] [Check]", "01/02/2018 10:11:12", "a1b2c3");
+    private static final ServiceInstance LONG_NAMES = new ServiceInstance(StringUtils.repeat("Worker", 8),
+            StringUtils.repeat("host", 16), 65535, "[v] []", "01/02/2018 10:11:12", "id");
+    private static final ServiceInstance NULLS = new ServiceInstance(null, null, 0, null, null, null);
+
+    @Test
+    public void testRowsMatchFormattedRows() {
+        for (ServiceInstance instance : Arrays.asList(WORKER, LONG_NAMES, NULLS)) {
+            assertEquals(formattedRow(instance), instance.toTableRow());
+        }
+    }
+
+    @Test
+    public void testTableMatchesFormattedTable() {
+        List<Collection<ServiceInstance>> services = Arrays.asList(
+                Arrays.asList(WORKER, LONG_NAMES),
+                Collections.emptyList(),
+                Collections.singletonList(NULLS));
+
+        StringBuilder expected = new StringBuilder(formattedHeader("localhost:2181", "zk-srv-discovery:1.0.1"));
+        for (Collection<ServiceInstance> collection : services) {
+            for (ServiceInstance instance : collection) {
+                expected.append(formattedRow(instance)).append('\n');
+            }
+        }
+
+        assertEquals(expected.toString(),
+                TableRenderer.renderTable("localhost:2181", "zk-srv-discovery:1.0.1", services));
+    }
+
+    @Test
+    public void testHealthColumn() {
+        List<Collection<ServiceInstance>> services = Collections.singletonList(Arrays.asList(WORKER, NULLS));
+
+        String table = TableRenderer.renderTable("localhost:2181", "zk-srv-discovery:1.0.1", services,
+                instance -> instance == WORKER ? Boolean.TRUE : null);
+        String[] lines = table.split("\n");
+
+        assertEquals(formattedRow(WORKER) + "healthy   | ", lines[5]);
+        assertEquals(formattedRow(NULLS) + "unknown   | ", lines[6]);
+        assertEquals(lines[3].length(), lines[4].length());
+        assertEquals("| Health    |", lines[3].substring(lines[3].length() - 13));
+    }
+
+    private static String formattedRow(final ServiceInstance instance) {
+        String hostInfo = instance.getAddress() + " " + Integer.toString(instance.getPort());
+        return "| " + String.format("%-21s", instance.getDate())
+                + " | " + String.format("%-32s", instance.getServiceName())
+                + " | " + String.format("%-50s", hostInfo)
+                + " | " + instance.getPayload() + " " + "[" + instance.getId() + "]"
+                + " | ";
+    }
+
+    private static String formattedHeader(final String zk, final String version) {
+        return "Connected to ZK=" + zk + '\n'
+                + "version=" + version + '\n' + '\n'
+                + "| " + String.format("%-22s", "Date")
+                + "| " + String.format("%-33s", "ServiceName")
+                + "| " + String.format("%-51s", "Host: Name,IP,Port")
+                + "| " + String.format("%-81s", "Version,MetaData,ZK-ID")
+                + "|" + '\n'
+                + "|" + StringUtils.leftPad("|", 24, "_")
+                + StringUtils.leftPad("|", 35, "_")
+                + StringUtils.leftPad("|", 53, "_")
+                + StringUtils.leftPad("|", 83, "_")
+                + '\n';
+    }
+}